@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.common.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads packet capture written by {@link PacketCaptureWriter}.
+ * Truncated last record (e.g. capture interrupted by process death) is ignored.
+ */
+public class PacketCaptureReader implements Closeable {
+
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    public static class Record {
+        /** time from the capture start in ms */
+        public final long time;
+        public final byte type;
+        /** packet data including packet header */
+        public final byte[] data;
+
+        Record(long time, byte type, byte[] data) {
+            this.time = time;
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final DataInputStream in;
+    private final long startWallTime;
+    private long time;
+
+    public PacketCaptureReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != PacketCaptureWriter.MAGIC) {
+                throw new IOException("Not a packet capture: " + file);
+            }
+            if (in.readByte() != PacketCaptureWriter.VERSION) {
+                throw new IOException("Unsupported capture version: " + file);
+            }
+            startWallTime = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public long getStartWallTime() {
+        return startWallTime;
+    }
+
+    /**
+     * Returns the next record or null at the end of capture
+     */
+    public Record next() throws IOException {
+        try {
+            long delta = readVarLong();
+            byte type = in.readByte();
+            long length = readVarLong();
+            if (length > MAX_PAYLOAD_SIZE) {
+                throw new IOException("Invalid record length: " + length);
+            }
+            byte[] data = new byte[(int) length];
+            in.readFully(data);
+            time += delta;
+            return new Record(time, type, data);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.common.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes dispatched packets to a compact binary capture file.
+ *
+ * Header: magic (int), version (byte), capture start wall-clock time (long, ms).
+ * Record: time delta from the previous record (varint, monotonic ms), packet type (byte),
+ * payload length (varint), payload bytes.
+ */
+public class PacketCaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x47575043; // GWPC
+    static final byte VERSION = 1;
+
+    private final DataOutputStream out;
+    private long lastTime = -1;
+
+    public PacketCaptureWriter(File file, long startWallTime) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(startWallTime);
+    }
+
+    /**
+     * Appends packet record
+     * @param monotonicTime monotonic clock time in ms (e.g. elapsed realtime)
+     * @param data packet data including packet header
+     */
+    public synchronized void write(long monotonicTime, byte type, byte[] data) throws IOException {
+        long delta = lastTime < 0 ? 0 : Math.max(0, monotonicTime - lastTime);
+        lastTime = monotonicTime;
+        writeVarLong(delta);
+        out.writeByte(type);
+        writeVarLong(data.length);
+        out.write(data);
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.common.capture;
+
+import java.io.IOException;
+
+/**
+ * Replays a packet capture with original timing scaled by the speed factor.
+ * Replay time is exposed by a virtual clock starting at the capture start time,
+ * so consumers can evaluate time dependent logic the same way as during the capture.
+ * Has no platform dependencies and can run headless on JVM.
+ */
+public class PacketReplay {
+
+    public static final double MIN_SPEED = 1;
+    public static final double MAX_SPEED = 1000;
+
+    public interface Sink {
+        /**
+         * Called for each replayed packet on the replay thread
+         * @param virtualTime replay wall-clock time in ms
+         */
+        void onPacket(byte type, byte[] data, long virtualTime);
+    }
+
+    /**
+     * Clock advanced by the replay
+     */
+    public static class VirtualClock {
+        private volatile long time;
+
+        public long currentTimeMillis() {
+            return time;
+        }
+
+        void set(long time) {
+            this.time = time;
+        }
+    }
+
+    private final double speed;
+    private final VirtualClock clock = new VirtualClock();
+    private volatile boolean cancelled;
+
+    /**
+     * @param speed replay speed factor, clamped to {@link #MIN_SPEED}..{@link #MAX_SPEED}
+     */
+    public PacketReplay(double speed) {
+        this.speed = Math.max(MIN_SPEED, Math.min(speed, MAX_SPEED));
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Replays the whole capture on the calling thread, returns number of replayed packets
+     */
+    public int run(PacketCaptureReader reader, Sink sink) throws IOException, InterruptedException {
+        long startWallTime = reader.getStartWallTime();
+        long realStart = System.nanoTime();
+        clock.set(startWallTime);
+
+        int count = 0;
+        PacketCaptureReader.Record record;
+        while (!cancelled && (record = reader.next()) != null) {
+            long dueNanos = realStart + (long) (record.time * 1000000L / speed);
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+            }
+            clock.set(startWallTime + record.time);
+            sink.onPacket(record.type, record.data, clock.currentTimeMillis());
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.common.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import sk.trupici.gwatch.wear.common.util.PacketUtils;
+
+/**
+ * Versioned set of configuration values identified by a 64-bit content hash.
+ * Both the phone and the watch keep a snapshot, so equal hashes mean the configuration is in sync
+ * and on mismatch only the differing TLVs need to be transferred.
+ */
+public class ConfigSnapshot {
+
+    /** reserved tag of the snapshot info TLV */
+    public static final byte TAG_SNAPSHOT_INFO = (byte) 0xF0;
+    public static final int INFO_LEN = 4 + 8 + 1;
+    /** info flag: packet contains the whole snapshot, previous values should be dropped */
+    public static final int FLAG_FULL = 0x01;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** values sorted by unsigned tag, so the hash does not depend on insertion order */
+    private final TreeMap<Integer, byte[]> values = new TreeMap<>();
+    private int version;
+
+    public ConfigSnapshot() {
+    }
+
+    public ConfigSnapshot(ConfigSnapshot snapshot) {
+        this.version = snapshot.version;
+        this.values.putAll(snapshot.values);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+    }
+
+    public byte[] get(byte tag) {
+        return values.get(tag & 0xFF);
+    }
+
+    /**
+     * Sets the value of given tag, returns true if the value was changed
+     */
+    public boolean put(byte tag, byte[] value) {
+        byte[] old = values.put(tag & 0xFF, value.clone());
+        return old == null || !Arrays.equals(old, value);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of all tags and values
+     */
+    public long getHash() {
+        long hash = FNV_OFFSET_BASIS;
+        for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+            byte[] value = entry.getValue();
+            hash = (hash ^ entry.getKey()) * FNV_PRIME;
+            hash = (hash ^ value.length) * FNV_PRIME;
+            for (byte b : value) {
+                hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns TLVs of values which differ from the base snapshot (all values if base is null)
+     */
+    public List<TLV> diff(ConfigSnapshot base) {
+        List<TLV> tlvList = new ArrayList<>();
+        for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+            byte[] value = entry.getValue();
+            if (base == null || !Arrays.equals(value, base.values.get(entry.getKey()))) {
+                tlvList.add(new TLV(entry.getKey().byteValue(), (byte) value.length, value));
+            }
+        }
+        return tlvList;
+    }
+
+    /**
+     * Applies received configuration values, the info TLV is skipped
+     */
+    public void apply(List<TLV> tlvList) {
+        for (TLV tlv : tlvList) {
+            if (tlv.getTag() != TAG_SNAPSHOT_INFO) {
+                values.put(tlv.getTag() & 0xFF, tlv.getValue());
+            }
+        }
+    }
+
+    /**
+     * Creates TLV describing this snapshot to be sent along with the values
+     */
+    public TLV createInfoTlv(boolean isFull) {
+        return new TLV(TAG_SNAPSHOT_INFO, (byte) INFO_LEN, encodeInfo(isFull ? FLAG_FULL : 0));
+    }
+
+    /**
+     * Encodes version, hash and flags into {@link #INFO_LEN} bytes
+     */
+    public byte[] encodeInfo(int flags) {
+        byte[] data = new byte[INFO_LEN];
+        long hash = getHash();
+        int idx = PacketUtils.encodeInt(data, 0, version);
+        idx += PacketUtils.encodeInt(data, idx, hash >>> 32);
+        idx += PacketUtils.encodeInt(data, idx, hash);
+        data[idx] = (byte) flags;
+        return data;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // serialization
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(version);
+        out.writeShort(values.size());
+        for (Map.Entry<Integer, byte[]> entry : values.entrySet()) {
+            out.writeByte(entry.getKey());
+            out.writeByte(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+    }
+
+    public static ConfigSnapshot readFrom(DataInput in) throws IOException {
+        ConfigSnapshot snapshot = new ConfigSnapshot();
+        snapshot.version = in.readInt();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            byte[] value = new byte[in.readUnsignedByte()];
+            in.readFully(value);
+            snapshot.values.put(tag, value);
+        }
+        return snapshot;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Decoded snapshot info
+     */
+    public static class Info {
+        public final int version;
+        public final long hash;
+        public final int flags;
+
+        private Info(int version, long hash, int flags) {
+            this.version = version;
+            this.hash = hash;
+            this.flags = flags;
+        }
+
+        public boolean isFull() {
+            return (flags & FLAG_FULL) != 0;
+        }
+
+        /**
+         * Decodes info encoded by {@link #encodeInfo(int)}, returns null if data are invalid
+         */
+        public static Info of(byte[] data) {
+            if (data == null || data.length < INFO_LEN) {
+                return null;
+            }
+            int version = PacketUtils.decodeInt(data, 0);
+            long hash = ((long) PacketUtils.decodeInt(data, 4) << 32) | (PacketUtils.decodeInt(data, 8) & 0xFFFFFFFFL);
+            return new Info(version, hash, data[12] & 0xFF);
+        }
+
+        /**
+         * Finds and decodes the info TLV, returns null if there is none
+         */
+        public static Info of(List<TLV> tlvList) {
+            for (TLV tlv : tlvList) {
+                if (tlv.getTag() == TAG_SNAPSHOT_INFO) {
+                    return of(tlv.getValue());
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -42,7 +42,7 @@ public enum PacketType {
     }
 
     public static PacketType getByCode(int code) {
-        return Arrays.stream(values()).filter(x -> x.code == code).findFirst().orElseGet(null);
+        return Arrays.stream(values()).filter(x -> x.code == code).findFirst().orElse(null);
     }
 
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.common.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import androidx.preference.PreferenceManager;
+
+/**
+ * Typed in-memory snapshot of shared preferences with write-behind persistence.
+ *
+ * Values are read from and written to the snapshot without any disk access. Changed values are
+ * collected and written by a single background thread after {@link #WRITE_DELAY_MS}, so a burst
+ * of changes is persisted by one commit. Use {@link #flush()} where the process may end soon
+ * after the change (workers, broadcast receivers).
+ * Settings changed from UI should be written by the {@code commit*} methods, so they can be read
+ * directly from the shared preferences right after the change.
+ * Listeners registered for a key are notified whenever its value in the snapshot is changed,
+ * either by this store or directly in the shared preferences.
+ */
+public class ConfigStore {
+    final private static String LOG_TAG = ConfigStore.class.getSimpleName();
+
+    private static final long WRITE_DELAY_MS = 500;
+
+    /** marks removed value in pending changes */
+    private static final Object REMOVED = new Object();
+
+    private static final Class<?>[] VALUE_TYPES = { String.class, Integer.class, Long.class, Boolean.class, Float.class };
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ConfigStore");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final Map<SharedPreferences, ConfigStore> stores = new HashMap<>();
+    private static volatile ConfigStore defaultStore;
+
+    public interface OnChangeListener {
+        void onConfigChanged(ConfigStore store, String key);
+    }
+
+    private final SharedPreferences prefs;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    /** changes not yet written, guarded by this */
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean isWriteScheduled;
+    /** serializes commits, a delayed write must not overwrite a newer immediate one */
+    private final Object writeLock = new Object();
+
+    private final Map<String, List<OnChangeListener>> listeners = new ConcurrentHashMap<>();
+
+    /** keeps the snapshot up to date when preferences are changed directly */
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefsListener = (sharedPrefs, key) -> {
+        if (key == null) {
+            reload();
+            return;
+        }
+        synchronized (this) {
+            if (pending.containsKey(key)) {
+                return; // own change not written yet, the snapshot is newer
+            }
+            if (!updateValue(key, readValue(sharedPrefs, key, values.get(key)))) {
+                return; // no change, e.g. written by this store
+            }
+        }
+        notifyListeners(key);
+    };
+
+    /**
+     * Returns store of the default shared preferences
+     */
+    public static ConfigStore get(Context context) {
+        ConfigStore store = defaultStore;
+        if (store == null) {
+            store = of(PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+            defaultStore = store;
+        }
+        return store;
+    }
+
+    /**
+     * Returns store of given shared preferences
+     */
+    public static synchronized ConfigStore of(SharedPreferences prefs) {
+        ConfigStore store = stores.get(prefs);
+        if (store == null) {
+            store = new ConfigStore(prefs);
+            stores.put(prefs, store);
+        }
+        return store;
+    }
+
+    private ConfigStore(SharedPreferences prefs) {
+        this.prefs = prefs;
+        reload();
+        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+    }
+
+    private synchronized void reload() {
+        values.clear();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Object> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                values.remove(entry.getKey());
+            } else {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // getters
+
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    public int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    public long getLong(String key, long defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    public String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // setters
+
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            put(key, value);
+        }
+    }
+
+    public void remove(String key) {
+        put(key, REMOVED);
+    }
+
+    private void put(String key, Object value) {
+        synchronized (this) {
+            if (!updateValue(key, value)) {
+                return;
+            }
+            pending.put(key, value);
+            scheduleWrite();
+        }
+        notifyListeners(key);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // immediate setters
+
+    public void commitBoolean(String key, boolean value) {
+        commit(key, value);
+    }
+
+    public void commitInt(String key, int value) {
+        commit(key, value);
+    }
+
+    public void commitLong(String key, long value) {
+        commit(key, value);
+    }
+
+    public void commitString(String key, String value) {
+        commit(key, value == null ? REMOVED : value);
+    }
+
+    /**
+     * Writes the value and waits until it is on the disk, a pending change of the key is dropped
+     */
+    private void commit(String key, Object value) {
+        boolean isChanged;
+        synchronized (writeLock) {
+            synchronized (this) {
+                isChanged = updateValue(key, value);
+                pending.remove(key);
+            }
+            SharedPreferences.Editor edit = prefs.edit();
+            putValue(edit, key, value);
+            if (!edit.commit()) {
+                Log.e(LOG_TAG, "commit: failed to write " + key);
+            }
+        }
+        if (isChanged) {
+            notifyListeners(key);
+        }
+    }
+
+    /**
+     * Updates the snapshot, must be called with this locked
+     * @return true if the value is changed
+     */
+    private boolean updateValue(String key, Object value) {
+        if (value == REMOVED || value == null) {
+            return values.remove(key) != null;
+        }
+        return !value.equals(values.put(key, value));
+    }
+
+    /**
+     * Reads single value of unknown type, the type of the previous value is tried first
+     * @return value or null if not set
+     */
+    private static Object readValue(SharedPreferences prefs, String key, Object prevValue) {
+        if (!prefs.contains(key)) {
+            return null;
+        }
+        if (prevValue != null) {
+            try {
+                return readValue(prefs, key, prevValue.getClass());
+            } catch (ClassCastException e) {
+                // type changed
+            }
+        }
+        for (Class<?> type : VALUE_TYPES) {
+            try {
+                return readValue(prefs, key, type);
+            } catch (ClassCastException e) {
+                // try next type
+            }
+        }
+        return prefs.getStringSet(key, null);
+    }
+
+    private static Object readValue(SharedPreferences prefs, String key, Class<?> type) {
+        if (type == Boolean.class) {
+            return prefs.getBoolean(key, false);
+        } else if (type == Integer.class) {
+            return prefs.getInt(key, 0);
+        } else if (type == Long.class) {
+            return prefs.getLong(key, 0L);
+        } else if (type == Float.class) {
+            return prefs.getFloat(key, 0f);
+        } else if (type == String.class) {
+            return prefs.getString(key, null);
+        }
+        throw new ClassCastException(type.getName());
+    }
+
+    private void scheduleWrite() {
+        if (!isWriteScheduled) {
+            isWriteScheduled = true;
+            writer.schedule(this::writePending, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all pending changes and waits until they are on the disk.
+     * Must not be called on the main thread.
+     */
+    public void flush() {
+        try {
+            writer.submit(this::writePending).get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "flush: failed to write changes", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes all pending changes in background and calls the callback on the writer thread when done
+     */
+    public void flushAsync(Runnable callback) {
+        writer.execute(() -> {
+            writePending();
+            callback.run();
+        });
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            Map<String, Object> changes;
+            synchronized (this) {
+                isWriteScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                changes = new HashMap<>(pending);
+            }
+
+            SharedPreferences.Editor edit = prefs.edit();
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                putValue(edit, entry.getKey(), entry.getValue());
+            }
+            if (!edit.commit()) {
+                Log.e(LOG_TAG, "writePending: failed to write " + changes.size() + " changes");
+            }
+            // keep values changed again in the meantime
+            synchronized (this) {
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    if (pending.get(entry.getKey()) == entry.getValue()) {
+                        pending.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // change listeners
+
+    public void registerListener(String key, OnChangeListener listener) {
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void unregisterListener(String key, OnChangeListener listener) {
+        List<OnChangeListener> keyListeners = listeners.get(key);
+        if (keyListeners != null) {
+            keyListeners.remove(listener);
+        }
+    }
+
+    private void notifyListeners(String key) {
+        List<OnChangeListener> keyListeners = listeners.get(key);
+        if (keyListeners != null) {
+            for (OnChangeListener listener : keyListeners) {
+                listener.onConfigChanged(this, key);
+            }
+        }
+    }
+
+    private static void putValue(SharedPreferences.Editor edit, String key, Object value) {
+        if (value == REMOVED) {
+            edit.remove(key);
+        } else if (value instanceof Boolean) {
+            edit.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Integer) {
+            edit.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            edit.putLong(key, (Long) value);
+        } else {
+            edit.putString(key, (String) value);
+        }
+    }
+}
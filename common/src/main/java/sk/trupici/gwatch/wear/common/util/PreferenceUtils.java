@@ -23,8 +23,6 @@ import android.util.Log;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
-import androidx.preference.PreferenceManager;
-
 public class PreferenceUtils {
     final private static String LOG_TAG = PreferenceUtils.class.getSimpleName();
 
@@ -34,37 +32,32 @@ public class PreferenceUtils {
     }
 
     public static boolean isConfigured(Context context, String prefName, boolean defValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getBoolean(prefName, defValue);
+        return ConfigStore.get(context).getBoolean(prefName, defValue);
     }
 
     public static void setIsConfigured(Context context, String prefName, boolean value) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        prefs.edit().putBoolean(prefName, value).commit();
+        ConfigStore.get(context).commitBoolean(prefName, value);
     }
 
     public static int getIntValue(Context context, String prefName, int defValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getInt(prefName, defValue);
+        return ConfigStore.get(context).getInt(prefName, defValue);
     }
 
     public static void setIntValue(Context context, String prefName, int value) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        prefs.edit().putInt(prefName, value).commit();
+        ConfigStore.get(context).commitInt(prefName, value);
     }
 
     public static int getStringValueAsInt(Context context, String prefName, int defValue) {
-        return getStringValueAsInt(PreferenceManager.getDefaultSharedPreferences(context), prefName, defValue);
+        String strValue = ConfigStore.get(context).getString(prefName, StringUtils.EMPTY_STRING);
+        return strValue.trim().isEmpty() ? defValue : Integer.valueOf(strValue);
     }
 
     public static String getStringValue(Context context, String prefName, String defValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(prefName, defValue);
+        return ConfigStore.get(context).getString(prefName, defValue);
     }
 
     public static void setStringValue(Context context, String prefName, String value) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        prefs.edit().putString(prefName, value).commit();
+        ConfigStore.get(context).commitString(prefName, value);
     }
 
     public static int getStringValueAsInt(SharedPreferences prefs, String prefName, int defValue) {
@@ -73,18 +66,15 @@ public class PreferenceUtils {
     }
 
     public static void setLongValue(Context context, String prefName, long value) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        prefs.edit().putLong(prefName, value).commit();
+        ConfigStore.get(context).commitLong(prefName, value);
     }
 
     public static long getLongValue(Context context, String prefName, long defValue) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getLong(prefName, defValue);
+        return ConfigStore.get(context).getLong(prefName, defValue);
     }
 
     public static int[] getIntArrayValue(Context context, String prefName) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String serialized = prefs.getString(prefName, null);
+        String serialized = ConfigStore.get(context).getString(prefName, null);
         if (serialized == null) {
             Log.w(LOG_TAG, "getIntArrayValue: no data to restore");
             return null;
@@ -106,9 +96,7 @@ public class PreferenceUtils {
                     .mapToObj(Integer::toString)
                     .collect(Collectors.joining(":"));
 
-            SharedPreferences.Editor edit = PreferenceManager.getDefaultSharedPreferences(context).edit();
-            edit.putString(prefName, serialized);
-            edit.commit();
+            ConfigStore.get(context).commitString(prefName, serialized);
             return true;
         } catch (Exception e) {
             Log.e(LOG_TAG, "getIntArrayValue: failed to store data: " + e.getLocalizedMessage());
@@ -18,9 +18,9 @@
 
 package sk.trupici.gwatch.wear.console;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.List;
 
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
@@ -31,7 +31,7 @@ public class ConsoleBuffer implements PacketConsole {
     private final static int MAX_CONSOLE_LINES = 300;
 
     final private Date creationDate;
-    final private LinkedList<String> buffer;
+    final private LineRing buffer;
     private boolean isWatchConnected;
 
     private PacketConsoleView view;
@@ -41,11 +41,14 @@ public class ConsoleBuffer implements PacketConsole {
 
     public ConsoleBuffer(Date creationDate) {
         this.creationDate = creationDate;
-        this.buffer = new LinkedList<>();
+        this.buffer = new LineRing(MAX_CONSOLE_LINES);
     }
 
-    public void init() {
+    public synchronized void init() {
         buffer.clear();
+        if (view != null) {
+            view.onLinesCleared();
+        }
         appendText(GWatchApplication.getAppContext().getString(R.string.created_at, StringUtils.formatDateTime(creationDate)));
         appendText(StringUtils.EMPTY_STRING);
         appendText(GWatchApplication.getAppContext().getString(R.string.waiting_for_packet));
@@ -54,11 +57,20 @@ public class ConsoleBuffer implements PacketConsole {
     @Override
     public synchronized void registerView(PacketConsoleView view) {
         this.view = view;
+        // initial content, further changes are sent as deltas
+        List<String> lines = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            lines.add(buffer.get(i));
+        }
+        view.onLinesCleared();
+        view.onLinesAppended(lines);
     }
 
     @Override
     public synchronized void unregisterView(PacketConsoleView view) {
-        this.view = null;
+        if (this.view == view) {
+            this.view = null;
+        }
     }
 
     @Override
@@ -77,12 +89,17 @@ public class ConsoleBuffer implements PacketConsole {
     @Override
     public synchronized String getText() {
         StringBuilder strBuffer = new StringBuilder();
-        for (String s : buffer) {
-            strBuffer.append(s).append("\n");
+        for (int i = 0; i < buffer.size(); i++) {
+            strBuffer.append(buffer.get(i)).append("\n");
         }
         return strBuffer.toString();
     }
 
+    @Override
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
     @Override
     public void showText(final String text) {
         appendText(text);
@@ -93,19 +110,37 @@ public class ConsoleBuffer implements PacketConsole {
             return;
         }
 
-        // calculate the number of lines of text to add
-        String[] textLines = text.split("\n");
-
-        // recycle lines from the top of the content if necessary
-        while (MAX_CONSOLE_LINES - buffer.size() < textLines.length + 1) {
-            buffer.removeFirst();
+        List<String> lines = splitLines(text);
+        for (String line : lines) {
+            buffer.add(line);
         }
 
-        Collections.addAll(buffer, textLines);
-
         if (view != null) {
-            view.setText(getText());
+            view.onLinesAppended(lines);
+        }
+    }
+
+    /**
+     * Splits text to lines, same as {@code text.split("\n")} but without regex overhead
+     */
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>(4);
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        lines.add(text.substring(start));
+        // trailing empty lines are dropped, unless the text is empty
+        int count = lines.size();
+        while (count > 1 && lines.get(count - 1).isEmpty()) {
+            lines.remove(--count);
+        }
+        if (count == 1 && lines.get(0).isEmpty() && !text.isEmpty()) {
+            lines.clear();
         }
+        return lines;
     }
     ///////////////////////////////////////////////////////////////////////////
 }
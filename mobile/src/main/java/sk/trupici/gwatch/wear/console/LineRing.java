@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.console;
+
+/**
+ * Fixed capacity ring of text lines, the oldest line is dropped when full.
+ */
+public class LineRing {
+
+    private final String[] lines;
+    private int head; // index of the oldest line
+    private int size;
+
+    public LineRing(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * Appends line, returns true if the oldest line was dropped
+     */
+    public boolean add(String line) {
+        if (size < lines.length) {
+            lines[(head + size) % lines.length] = line;
+            size++;
+            return false;
+        }
+        lines[head] = line;
+        head = (head + 1) % lines.length;
+        return true;
+    }
+
+    /**
+     * Returns line at given position, 0 is the oldest one
+     */
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return lines[(head + index) % lines.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return lines.length;
+    }
+
+    public void clear() {
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -24,6 +24,7 @@ public interface PacketConsole {
 
     void init();
     String getText();
+    int getCapacity();
 
     void onWatchConnectionChanged(boolean isConnected);
     Boolean getIsWatchConnected();
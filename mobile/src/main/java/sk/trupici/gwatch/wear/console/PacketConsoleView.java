@@ -18,7 +18,16 @@
 
 package sk.trupici.gwatch.wear.console;
 
+import java.util.List;
+
+/**
+ * Console view receiving incremental updates.
+ * Updates are delivered in order, but not necessarily on the UI thread.
+ */
 public interface PacketConsoleView {
-    void setText(String text);
+    /** all lines were removed */
+    void onLinesCleared();
+    /** lines were appended, oldest lines beyond the console capacity are dropped */
+    void onLinesAppended(List<String> lines);
     void setConnectionStatus(Boolean isConnected);
 }
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.data;
+
+import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+import sk.trupici.gwatch.wear.common.data.Trend;
+import sk.trupici.gwatch.wear.common.util.CommonConstants;
+
+/**
+ * Phone-side glucose history.
+ *
+ * Append-only log split into one segment file per (UTC) day. Each record has fixed 8 bytes:
+ * <pre>
+ *  0-3  timestamp in seconds from epoch (unsigned)
+ *  4-5  glucose value in mg/dl (unsigned)
+ *  6    trend ordinal
+ *  7    checksum of bytes 0-6
+ * </pre>
+ * Records in a segment are ordered by time. Every {@link #INDEX_STRIDE}-th record timestamp
+ * is kept in a sparse in-memory index, so range queries need a binary search over segments,
+ * a binary search over the index and a scan of at most one index stride.
+ *
+ * A torn write can only damage the tail of the newest segment, it is truncated on open.
+ */
+public class GlucoseStore {
+
+    public interface Visitor {
+        void onRecord(long timestamp, int glucose, Trend trend);
+    }
+
+    public static class Record {
+        public final long timestamp;
+        public final int glucose;
+        public final Trend trend;
+
+        public Record(long timestamp, int glucose, Trend trend) {
+            this.timestamp = timestamp;
+            this.glucose = glucose;
+            this.trend = trend;
+        }
+    }
+
+    private static final String DIR_NAME = "glucose";
+    private static final String SEGMENT_PREFIX = "glucose-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    public static final int RECORD_SIZE = 8;
+    private static final int INDEX_STRIDE = 32;
+    private static final int READ_BUFFER_RECORDS = 256;
+    private static final byte CHECKSUM_SEED = (byte) 0xA5;
+
+    public static final int RETENTION_DAYS = 30;
+
+    private static final Trend[] TRENDS = Trend.values();
+
+    private static GlucoseStore instance;
+
+    private final File dir;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(RECORD_SIZE * READ_BUFFER_RECORDS);
+
+    private RandomAccessFile tailFile;
+    private Segment tailSegment;
+
+    public static synchronized GlucoseStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new GlucoseStore(new File(context.getFilesDir(), DIR_NAME));
+        }
+        return instance;
+    }
+
+    public GlucoseStore(File dir) {
+        this.dir = dir;
+        open();
+    }
+
+    private static class Segment {
+        final long day;
+        final File file;
+        int count;
+        long lastSec = -1;
+        /** timestamps (sec) of every INDEX_STRIDE-th record, null if not built yet */
+        long[] index;
+
+        Segment(long day, File file) {
+            this.day = day;
+            this.file = file;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // recovery
+
+    private synchronized void open() {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(LOG_TAG, "GlucoseStore: failed to create " + dir);
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                // interrupted rewrite, original segment is still valid
+                file.delete();
+                continue;
+            }
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                long day = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = new Segment(day, file);
+                segment.count = (int) (file.length() / RECORD_SIZE);
+                segments.put(day, segment);
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "GlucoseStore: unknown file " + name);
+            }
+        }
+        if (!segments.isEmpty()) {
+            recoverTail(segments.lastEntry().getValue());
+        }
+    }
+
+    /**
+     * Truncates partially written or corrupted records at the end of the segment
+     */
+    private void recoverTail(Segment segment) {
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            int count = (int) (channel.size() / RECORD_SIZE);
+            long lastSec = -1;
+            while (count > 0) {
+                recordBuffer.clear();
+                channel.read(recordBuffer, (long) (count - 1) * RECORD_SIZE);
+                if (isValid(recordBuffer)) {
+                    lastSec = getSeconds(recordBuffer);
+                    break;
+                }
+                count--;
+            }
+            if (channel.size() != (long) count * RECORD_SIZE) {
+                Log.w(LOG_TAG, "GlucoseStore: truncating tail of " + segment.file.getName() + " to " + count + " records");
+                channel.truncate((long) count * RECORD_SIZE);
+            }
+            segment.count = count;
+            segment.lastSec = lastSec;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "GlucoseStore: tail recovery failed", e);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // write
+
+    /**
+     * Stores glucose sample. Samples already present (same timestamp) are ignored.
+     * @return true if sample was stored
+     */
+    public synchronized boolean append(long timestamp, int glucose, Trend trend) {
+        if (timestamp <= 0 || glucose <= 0) {
+            return false;
+        }
+        long sec = timestamp / CommonConstants.SECOND_IN_MILLIS;
+        long day = timestamp / CommonConstants.DAY_IN_MILLIS;
+        if (day < System.currentTimeMillis() / CommonConstants.DAY_IN_MILLIS - RETENTION_DAYS) {
+            return false; // out of retention period
+        }
+        try {
+            Segment segment = segments.get(day);
+            if (segment == null) {
+                segment = new Segment(day, getSegmentFile(day));
+                segments.put(day, segment);
+                compact(System.currentTimeMillis());
+            }
+            if (segment.lastSec < 0 && segment.count > 0) {
+                segment.lastSec = readSeconds(segment, segment.count - 1);
+            }
+
+            fillRecord(writeBuffer, sec, glucose, trend);
+            if (sec > segment.lastSec) {
+                FileChannel channel = getTailChannel(segment);
+                writeBuffer.rewind();
+                channel.write(writeBuffer, (long) segment.count * RECORD_SIZE);
+                if (segment.index != null && segment.count % INDEX_STRIDE == 0) {
+                    segment.index = appendIndex(segment.index, sec);
+                }
+                segment.count++;
+                segment.lastSec = sec;
+                return true;
+            } else if (findIndex(segment, sec) >= 0) {
+                return false; // already stored
+            } else {
+                insert(segment, sec);
+                return true;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "GlucoseStore: append failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts out-of-order (backfilled) record by atomic rewrite of the whole segment
+     */
+    private void insert(Segment segment, long sec) throws IOException {
+        closeTail();
+        byte[] data = new byte[(segment.count + 1) * RECORD_SIZE];
+        int pos = 0;
+        boolean inserted = false;
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            for (int i = 0; i < segment.count; i++) {
+                buffer.limit(pos + RECORD_SIZE).position(pos);
+                raf.getChannel().read(buffer, (long) i * RECORD_SIZE);
+                if (!inserted && getSeconds(data, pos) > sec) {
+                    // shift current record and put the new one before it
+                    System.arraycopy(data, pos, data, pos + RECORD_SIZE, RECORD_SIZE);
+                    System.arraycopy(writeBuffer.array(), 0, data, pos, RECORD_SIZE);
+                    pos += RECORD_SIZE;
+                    inserted = true;
+                }
+                pos += RECORD_SIZE;
+            }
+        }
+        if (!inserted) {
+            System.arraycopy(writeBuffer.array(), 0, data, pos, RECORD_SIZE);
+        }
+
+        File tmp = new File(segment.file.getPath() + TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(segment.file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + segment.file);
+        }
+        segment.count++;
+        segment.lastSec = getSeconds(data, data.length - RECORD_SIZE);
+        segment.index = null;
+    }
+
+    /**
+     * Removes segments older than retention period
+     */
+    public synchronized void compact(long now) {
+        long minDay = (now / CommonConstants.DAY_IN_MILLIS) - RETENTION_DAYS;
+        Map<Long, Segment> expired = segments.headMap(minDay);
+        for (Segment segment : expired.values()) {
+            if (segment == tailSegment) {
+                closeTail();
+            }
+            if (!segment.file.delete()) {
+                Log.w(LOG_TAG, "GlucoseStore: failed to delete " + segment.file.getName());
+            }
+        }
+        expired.clear();
+    }
+
+    public synchronized void close() {
+        closeTail();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // read
+
+    /**
+     * Visits all records with timestamp in range {@code <from, to>} (in millis) in time order
+     * @return number of visited records
+     */
+    public synchronized int query(long from, long to, Visitor visitor) {
+        long fromSec = from / CommonConstants.SECOND_IN_MILLIS;
+        long toSec = to / CommonConstants.SECOND_IN_MILLIS;
+        int visited = 0;
+        Map<Long, Segment> range = segments.subMap(
+                from / CommonConstants.DAY_IN_MILLIS, true,
+                to / CommonConstants.DAY_IN_MILLIS, true);
+        for (Segment segment : range.values()) {
+            if (segment.count == 0) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+                FileChannel channel = raf.getChannel();
+                int idx = findFirstIndex(segment, fromSec);
+                boolean done = false;
+                while (idx < segment.count && !done) {
+                    readBuffer.clear();
+                    int toRead = Math.min(READ_BUFFER_RECORDS, segment.count - idx);
+                    readBuffer.limit(toRead * RECORD_SIZE);
+                    channel.read(readBuffer, (long) idx * RECORD_SIZE);
+                    readBuffer.flip();
+                    while (readBuffer.remaining() >= RECORD_SIZE) {
+                        int pos = readBuffer.position();
+                        long sec = getSeconds(readBuffer.array(), pos);
+                        if (sec > toSec) {
+                            done = true;
+                            break;
+                        }
+                        if (sec >= fromSec) {
+                            visitor.onRecord(sec * CommonConstants.SECOND_IN_MILLIS,
+                                    readBuffer.getShort(pos + 4) & 0xFFFF,
+                                    toTrend(readBuffer.get(pos + 6)));
+                            visited++;
+                        }
+                        readBuffer.position(pos + RECORD_SIZE);
+                    }
+                    idx += toRead;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "GlucoseStore: query failed", e);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Returns the newest stored record or null if store is empty
+     */
+    public synchronized Record getLast() {
+        for (Segment segment : segments.descendingMap().values()) {
+            if (segment.count == 0) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+                recordBuffer.clear();
+                raf.getChannel().read(recordBuffer, (long) (segment.count - 1) * RECORD_SIZE);
+                return new Record(getSeconds(recordBuffer) * CommonConstants.SECOND_IN_MILLIS,
+                        recordBuffer.getShort(4) & 0xFFFF,
+                        toTrend(recordBuffer.get(6)));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "GlucoseStore: read failed", e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // index
+
+    /**
+     * Returns index of the first record with timestamp not lower than given
+     */
+    private int findFirstIndex(Segment segment, long sec) throws IOException {
+        long[] index = getIndex(segment);
+        // binary search for the last index entry lower than sec
+        int lo = 0;
+        int hi = index.length - 1;
+        int block = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index[mid] < sec) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return block * INDEX_STRIDE;
+    }
+
+    /**
+     * Returns index of the record with given timestamp or -1 if not found
+     */
+    private int findIndex(Segment segment, long sec) throws IOException {
+        int start = findFirstIndex(segment, sec);
+        int end = Math.min(segment.count, start + INDEX_STRIDE + 1);
+        for (int i = start; i < end; i++) {
+            long recSec = readSeconds(segment, i);
+            if (recSec == sec) {
+                return i;
+            } else if (recSec > sec) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private long[] getIndex(Segment segment) throws IOException {
+        if (segment.index == null) {
+            int size = (segment.count + INDEX_STRIDE - 1) / INDEX_STRIDE;
+            long[] index = new long[size];
+            for (int i = 0; i < size; i++) {
+                index[i] = readSeconds(segment, i * INDEX_STRIDE);
+            }
+            segment.index = index;
+        }
+        return segment.index;
+    }
+
+    private static long[] appendIndex(long[] index, long sec) {
+        long[] newIndex = new long[index.length + 1];
+        System.arraycopy(index, 0, newIndex, 0, index.length);
+        newIndex[index.length] = sec;
+        return newIndex;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // file access
+
+    private File getSegmentFile(long day) {
+        return new File(dir, SEGMENT_PREFIX + day + SEGMENT_SUFFIX);
+    }
+
+    private FileChannel getTailChannel(Segment segment) throws IOException {
+        if (tailSegment != segment) {
+            closeTail();
+            tailFile = new RandomAccessFile(segment.file, "rw");
+            tailSegment = segment;
+        }
+        return tailFile.getChannel();
+    }
+
+    private void closeTail() {
+        if (tailFile != null) {
+            try {
+                tailFile.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "GlucoseStore: failed to close segment", e);
+            }
+            tailFile = null;
+            tailSegment = null;
+        }
+    }
+
+    private long readSeconds(Segment segment, int idx) throws IOException {
+        recordBuffer.clear();
+        if (segment == tailSegment) {
+            tailFile.getChannel().read(recordBuffer, (long) idx * RECORD_SIZE);
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+                raf.getChannel().read(recordBuffer, (long) idx * RECORD_SIZE);
+            }
+        }
+        return getSeconds(recordBuffer);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // record format
+
+    private static void fillRecord(ByteBuffer buffer, long sec, int glucose, Trend trend) {
+        buffer.clear();
+        buffer.putInt((int) sec);
+        buffer.putShort((short) Math.min(glucose, 0xFFFF));
+        buffer.put((byte) (trend == null ? 0 : trend.ordinal()));
+        buffer.put(checksum(buffer.array(), 0));
+    }
+
+    private static Trend toTrend(byte ordinal) {
+        return (ordinal >= 0 && ordinal < TRENDS.length) ? TRENDS[ordinal] : Trend.UNKNOWN;
+    }
+
+    private static byte checksum(byte[] data, int offset) {
+        byte sum = CHECKSUM_SEED;
+        for (int i = offset; i < offset + RECORD_SIZE - 1; i++) {
+            sum = (byte) ((sum << 1 | (sum & 0xFF) >>> 7) ^ data[i]);
+        }
+        return sum;
+    }
+
+    private static boolean isValid(ByteBuffer buffer) {
+        return buffer.position() == RECORD_SIZE
+                && checksum(buffer.array(), 0) == buffer.get(RECORD_SIZE - 1)
+                && getSeconds(buffer) > 0;
+    }
+
+    private static long getSeconds(ByteBuffer buffer) {
+        return buffer.getInt(0) & 0xFFFFFFFFL;
+    }
+
+    private static long getSeconds(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24)
+                | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8)
+                | (data[offset + 3] & 0xFFL);
+    }
+}
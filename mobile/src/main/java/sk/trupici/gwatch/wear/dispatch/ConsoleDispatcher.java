@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.dispatch;
+
+import android.content.Context;
+import android.util.Log;
+
+import sk.trupici.gwatch.wear.GWatchApplication;
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.data.Packet;
+
+/**
+ * Dispatcher showing packets in the packet console only.
+ * Used for capture replay, replayed packets are not sent to the watch, stored or captured again.
+ */
+public class ConsoleDispatcher implements Dispatcher {
+
+    @Override
+    public boolean dispatch(Packet packet) {
+        try {
+            Context context = GWatchApplication.getAppContext();
+            GWatchApplication.getPacketConsole().showText(packet.toText(context, context.getString(R.string.replayed_packet)));
+            return true;
+        } catch (Throwable e) {
+            Log.e(GWatchApplication.LOG_TAG, "ConsoleDispatcher: failed to show packet", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void reconnect(Context context) {
+        // nothing to connect to
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.dispatch;
+
+import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import sk.trupici.gwatch.wear.BuildConfig;
+import sk.trupici.gwatch.wear.common.capture.PacketCaptureReader;
+import sk.trupici.gwatch.wear.common.capture.PacketCaptureWriter;
+import sk.trupici.gwatch.wear.common.capture.PacketReplay;
+import sk.trupici.gwatch.wear.common.data.AAPSPacket;
+import sk.trupici.gwatch.wear.common.data.ConfigPacket;
+import sk.trupici.gwatch.wear.common.data.GlucosePacket;
+import sk.trupici.gwatch.wear.common.data.Packet;
+import sk.trupici.gwatch.wear.common.data.PacketType;
+
+/**
+ * Records dispatched packets into capture files and replays them back into a given dispatcher
+ */
+public class PacketCapture {
+
+    private static final String CAPTURE_DIR = "captures";
+    private static final String CAPTURE_SUFFIX = ".gwpc";
+
+    private static volatile PacketCaptureWriter writer;
+    private static PacketReplay replay;
+
+    public static synchronized boolean isCapturing() {
+        return writer != null;
+    }
+
+    public static synchronized File startCapture(Context context) throws IOException {
+        stopCapture();
+        File dir = new File(context.getFilesDir(), CAPTURE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + CAPTURE_SUFFIX;
+        File file = new File(dir, name);
+        writer = new PacketCaptureWriter(file, System.currentTimeMillis());
+        Log.i(LOG_TAG, "PacketCapture: capturing to " + file);
+        return file;
+    }
+
+    public static synchronized void stopCapture() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "PacketCapture: failed to close capture", e);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Records dispatched packet if the capture is active
+     */
+    static void record(Packet packet) {
+        PacketCaptureWriter captureWriter = writer;
+        if (captureWriter == null) {
+            return;
+        }
+        try {
+            captureWriter.write(SystemClock.elapsedRealtime(), packet.getType().getCodeAsByte(), packet.getData());
+            captureWriter.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "PacketCapture: failed to record packet", e);
+            stopCapture();
+        }
+    }
+
+    /**
+     * Returns the most recent capture file or null if there is none
+     */
+    public static File getLatestCapture(Context context) {
+        File[] files = new File(context.getFilesDir(), CAPTURE_DIR).listFiles((dir, name) -> name.endsWith(CAPTURE_SUFFIX));
+        File latest = null;
+        if (files != null) {
+            for (File file : files) {
+                if (latest == null || file.getName().compareTo(latest.getName()) > 0) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Replays the capture into the dispatcher on a background thread.
+     * Use a dispatcher not sending or storing packets (e.g. {@link ConsoleDispatcher}),
+     * the live dispatcher would deliver old values to the watch and capture them again.
+     * Any replay in progress is cancelled.
+     */
+    public static synchronized void startReplay(File file, double speed, Dispatcher dispatcher) {
+        if (replay != null) {
+            replay.cancel();
+        }
+        final PacketReplay packetReplay = new PacketReplay(speed);
+        replay = packetReplay;
+        new Thread(() -> {
+            try (PacketCaptureReader reader = new PacketCaptureReader(file)) {
+                int count = packetReplay.run(reader, (type, data, virtualTime) -> {
+                    Packet packet = decodePacket(type, data);
+                    if (packet != null) {
+                        dispatcher.dispatch(packet);
+                    } else if (BuildConfig.DEBUG) {
+                        Log.w(LOG_TAG, "PacketCapture: skipping unsupported packet type " + type);
+                    }
+                });
+                Log.i(LOG_TAG, "PacketCapture: replayed " + count + " packets from " + file.getName());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "PacketCapture: replay failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (PacketCapture.class) {
+                    if (replay == packetReplay) {
+                        replay = null;
+                    }
+                }
+            }
+        }, "PacketReplay").start();
+    }
+
+    private static Packet decodePacket(byte type, byte[] data) {
+        PacketType packetType = PacketType.getByCode(type);
+        if (packetType == null) {
+            return null;
+        }
+        switch (packetType) {
+            case GLUCOSE:
+                return GlucosePacket.of(data);
+            case AAPS:
+                return AAPSPacket.of(data);
+            case CONFIG:
+                return ConfigPacket.of(data);
+            default:
+                return null;
+        }
+    }
+}
@@ -42,7 +42,9 @@ import sk.trupici.gwatch.wear.common.util.BgUtils;
 import sk.trupici.gwatch.wear.common.util.DumpUtils;
 import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
 import sk.trupici.gwatch.wear.service.NotificationService;
+import sk.trupici.gwatch.wear.settings.ConfigSync;
 import sk.trupici.gwatch.wear.util.UiUtils;
 import sk.trupici.gwatch.wear.widget.WidgetUpdateService;
 
@@ -61,6 +63,8 @@ public class WatchDispatcher implements Dispatcher {
     @Override
     public boolean dispatch(Packet packet) {
         Log.d(LOG_TAG, "dispatch: " + packet.toText(GWatchApplication.getAppContext(), null));
+        PacketCapture.record(packet);
+        storeGlucose(packet);
         WidgetUpdateService.updateWidget(packet);
         updateNotificationService(packet);
 
@@ -118,6 +122,7 @@ public class WatchDispatcher implements Dispatcher {
     }
 
     private String nodeId = null;
+    private MessageClient.OnMessageReceivedListener messageListener = null;
 
     private void setupWearClient(Context context) {
 
@@ -126,9 +131,16 @@ public class WatchDispatcher implements Dispatcher {
 
         // Build a new MessageClient for the Wearable API
         MessageClient messageClient = Wearable.getMessageClient(context);
-        messageClient.addListener((messageEvent) -> { // TODO
+        if (messageListener != null) {
+            messageClient.removeListener(messageListener);
+        }
+        messageListener = (messageEvent) -> {
             Log.d(LOG_TAG, "onMessageReceived: " + messageEvent);
-        });
+            if (ConfigSync.CONFIG_HASH_PATH.equals(messageEvent.getPath())) {
+                ConfigSync.onWatchConfigHash(context, messageEvent.getData());
+            }
+        };
+        messageClient.addListener(messageListener);
 
         new Thread() {
             @Override
@@ -137,6 +149,10 @@ public class WatchDispatcher implements Dispatcher {
                 boolean isConnected = nodeId != null;
                 showMessage(context.getString(isConnected ? R.string.status_ok : R.string.status_failed));
                 GWatchApplication.getPacketConsole().onWatchConnectionChanged(isConnected);
+                if (isConnected) {
+                    // ask the watch for its config hash, the config is synced on mismatch
+                    messageClient.sendMessage(nodeId, ConfigSync.CONFIG_HASH_PATH, new byte[0]);
+                }
             }
         }.start();
     }
@@ -167,6 +183,22 @@ public class WatchDispatcher implements Dispatcher {
 
     }
 
+    private void storeGlucose(Packet packet) {
+        try {
+            if (packet instanceof GlucosePacket) {
+                GlucosePacket gp = (GlucosePacket) packet;
+                GlucoseStore.getInstance(GWatchApplication.getAppContext())
+                        .append(gp.getTimestamp(), gp.getGlucoseValue(), gp.getTrend());
+            } else if (packet instanceof AAPSPacket) {
+                AAPSPacket aapsPacket = (AAPSPacket) packet;
+                GlucoseStore.getInstance(GWatchApplication.getAppContext())
+                        .append(aapsPacket.getTimestamp(), aapsPacket.getGlucoseValue(), BgUtils.slopeArrowToTrend(aapsPacket.getSlopeArrow()));
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "storeGlucose: failed to store glucose value", e);
+        }
+    }
+
     private void updateNotificationService(Packet packet) {
         try {
             if (packet instanceof AAPSPacket) {
@@ -176,17 +208,13 @@ public class WatchDispatcher implements Dispatcher {
                         false);
                 if (!ignoreAppsBG) {
                     AAPSPacket aapsPacket = (AAPSPacket) packet;
-                    packet = new GlucosePacket(
+                    NotificationService.updateBgData(GWatchApplication.getAppContext(),
                             aapsPacket.getGlucoseValue(),
                             aapsPacket.getTimestamp(),
-                            (byte) 0,
                             BgUtils.slopeArrowToTrend(aapsPacket.getSlopeArrow()),
-                            aapsPacket.getSlopeArrow(),
                             aapsPacket.getSource());
                 }
-            }
-
-            if (packet instanceof GlucosePacket) {
+            } else if (packet instanceof GlucosePacket) {
                 NotificationService.updateBgData(GWatchApplication.getAppContext(), (GlucosePacket) packet);
             }
         } catch (Exception e) {
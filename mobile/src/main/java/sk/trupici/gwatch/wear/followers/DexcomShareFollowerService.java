@@ -71,6 +71,12 @@ public class DexcomShareFollowerService extends FollowerService {
     private static final String PREF_DEXCOM_SECRET = "cfg_dexcom_share_secret";
     private static final String PREF_DEXCOM_REQUEST_LATENCY = "cfg_dexcom_share_latency";
 
+    private static final String PREF_DEXCOM_SESSION_OWNER = "dexcom_share_session_owner";
+    private static final String PREF_DEXCOM_ACCOUNT_ID = "dexcom_share_account_id";
+    private static final String PREF_DEXCOM_SESSION_ID = "dexcom_share_session_id";
+    private static final String PREF_DEXCOM_SESSION_CREATED = "dexcom_share_session_created";
+    private static final String PREF_DEXCOM_SESSION_LIFETIME = "dexcom_share_session_lifetime";
+
     public static final String DEXCOM_US_URL = "https://share2.dexcom.com";
     public static final String DEXCOM_NON_US_URL = "https://shareous1.dexcom.com";
 
@@ -89,11 +95,18 @@ public class DexcomShareFollowerService extends FollowerService {
 
     private static final int MAX_SAMPLE_HISTORY_TIME_MIN = 60; // 1hr
     private static final int DEXCOM_MAX_SAMPLE_COUNT = 6; // 30m
+    private static final int DEXCOM_SAMPLE_PERIOD_MIN = 5;
+
+    private static final long SESSION_REFRESH_MARGIN_MS = 2 * DEF_SAMPLE_PERIOD_MS; // 10min
 
     public static String secret;
     private static String account;
     private static String serverUrl;
     private static String sessionId;
+    private static String publisherAccountId;
+    private static long sessionCreated;
+    private static long sessionLastValid;
+    private static long sessionLifetime;
     private static long sampleToRequestDelay;
 
     public DexcomShareFollowerService(@NonNull Context context, @NonNull WorkerParameters workerParams) {
@@ -102,12 +115,14 @@ public class DexcomShareFollowerService extends FollowerService {
 
     protected static void reset() {
         FollowerService.reset();
-        sessionId = null;;
+        sessionId = null;
+        publisherAccountId = null;
         Context context = GWatchApplication.getAppContext();
         serverUrl = getServerUrl(context);
         account = getAccount(context);
         secret = getSecret(context);
         sampleToRequestDelay = PreferenceUtils.getStringValueAsInt(GWatchApplication.getAppContext(), PREF_DEXCOM_REQUEST_LATENCY, DEF_DEXCOM_SAMPLE_LATENCY_MS) * 1000L;
+        restoreSession(context);
     }
 
     @Override
@@ -134,6 +149,17 @@ public class DexcomShareFollowerService extends FollowerService {
         return SRC_LABEL;
     }
 
+    @Override
+    protected void onRequestCompleted(Context context) {
+        if (publisherAccountId == null || sessionId == null || !isSessionExpiring()) {
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "DSFService: refreshing session before expiration");
+        }
+        getSessionId(context, publisherAccountId, getApplicationId());
+    }
+
     @Override
     protected long getSampleToRequestDelay() {
         return sampleToRequestDelay;
@@ -150,13 +176,12 @@ public class DexcomShareFollowerService extends FollowerService {
             }
 
             UiUtils.showMessage(context, context.getString(R.string.follower_data_request, SRC_LABEL));
-            String minutes = String.valueOf(getLastSampleTime() == null ? MAX_SAMPLE_HISTORY_TIME_MIN
-                    : (System.currentTimeMillis() - getLastSampleTime() ) / 60000);
+            int minutes = getRequestedMinutes();
 
             HttpUrl httpUrl = HttpUrl.parse(url).newBuilder()
                     .addQueryParameter("sessionId", sessionId)
-                    .addQueryParameter("minutes", minutes)
-                    .addQueryParameter("maxCount", String.valueOf(DEXCOM_MAX_SAMPLE_COUNT))
+                    .addQueryParameter("minutes", String.valueOf(minutes))
+                    .addQueryParameter("maxCount", String.valueOf(getRequestedSampleCount(minutes)))
                     .build();
             if (BuildConfig.DEBUG) {
                 Log.d(LOG_TAG, "DSFService: httpUrl: " + httpUrl.toString());
@@ -179,6 +204,7 @@ public class DexcomShareFollowerService extends FollowerService {
 
         try (Response response = getHttpClient(context).newCall(builder.build()).execute()) {
             if (response.isSuccessful()) {
+                sessionLastValid = System.currentTimeMillis();
                 String receivedData = getResponseBodyAsString(response);
                 if (receivedData != null && receivedData.length() > 0) {
                     Log.i(GWatchApplication.LOG_TAG, "Dexcom Share data received: " + receivedData);
@@ -186,6 +212,8 @@ public class DexcomShareFollowerService extends FollowerService {
                 }
             } else {
                 handleErrorIgnoreInvalidSession(response, Arrays.asList("SessionIdNotFound", "SessionNotValid"));
+                // only invalid session errors get here, other errors are thrown
+                onSessionExpired(context);
                 if (!recursion) {
                     return getDexcomValue(context, true);
                 }
@@ -238,6 +266,7 @@ public class DexcomShareFollowerService extends FollowerService {
                     return null;
                 }
                 UiUtils.showMessage(context, context.getString(R.string.status_ok));
+                storeSession(context, accountId, sessionId);
                 return sessionId;
             } else {
                 handleErrorIgnoreInvalidSession(response, null);
@@ -254,6 +283,15 @@ public class DexcomShareFollowerService extends FollowerService {
             return sessionId;
         }
 
+        if (publisherAccountId != null) {
+            // skip authentication round trip if account id is already known
+            String newSessionId = getSessionId(context, publisherAccountId, getApplicationId());
+            if (newSessionId != null) {
+                return newSessionId;
+            }
+            publisherAccountId = null;
+        }
+
         Log.e(LOG_TAG, "DSFService: authenticating...");
         UiUtils.showMessage(context, context.getString(R.string.follower_auth_request, SRC_LABEL));
 
@@ -309,6 +347,87 @@ public class DexcomShareFollowerService extends FollowerService {
         return null;
     }
 
+    /**
+     * Returns number of minutes of history to request,
+     * covering the gap since the last known sample
+     */
+    private int getRequestedMinutes() {
+        Long lastSampleTime = getLastSampleTime();
+        if (lastSampleTime == null) {
+            return MAX_SAMPLE_HISTORY_TIME_MIN;
+        }
+        long gapMin = (System.currentTimeMillis() - lastSampleTime + 59999) / 60000;
+        return (int) Math.max(1, Math.min(gapMin, MAX_SAMPLE_HISTORY_TIME_MIN));
+    }
+
+    /**
+     * Returns max number of samples expected within given number of minutes
+     */
+    private static int getRequestedSampleCount(int minutes) {
+        return Math.max(1, Math.min(minutes / DEXCOM_SAMPLE_PERIOD_MIN + 1, DEXCOM_MAX_SAMPLE_COUNT));
+    }
+
+    private static boolean isSessionExpiring() {
+        if (sessionLifetime <= SESSION_REFRESH_MARGIN_MS || sessionCreated == 0) {
+            return false; // session lifetime not known yet
+        }
+        return System.currentTimeMillis() - sessionCreated > sessionLifetime - SESSION_REFRESH_MARGIN_MS;
+    }
+
+    /**
+     * Restores persisted account and session ids if they were obtained for the current account
+     */
+    private static void restoreSession(Context context) {
+        sessionLifetime = PreferenceUtils.getLongValue(context, PREF_DEXCOM_SESSION_LIFETIME, 0L);
+        sessionLastValid = 0;
+        if (!getSessionOwner().equals(PreferenceUtils.getStringValue(context, PREF_DEXCOM_SESSION_OWNER, null))) {
+            sessionCreated = 0;
+            sessionLifetime = 0;
+            PreferenceUtils.setLongValue(context, PREF_DEXCOM_SESSION_LIFETIME, 0L);
+            PreferenceUtils.setStringValue(context, PREF_DEXCOM_ACCOUNT_ID, null);
+            PreferenceUtils.setStringValue(context, PREF_DEXCOM_SESSION_ID, null);
+            return;
+        }
+        publisherAccountId = PreferenceUtils.getStringValue(context, PREF_DEXCOM_ACCOUNT_ID, null);
+        sessionId = PreferenceUtils.getStringValue(context, PREF_DEXCOM_SESSION_ID, null);
+        sessionCreated = PreferenceUtils.getLongValue(context, PREF_DEXCOM_SESSION_CREATED, 0L);
+    }
+
+    private static void storeSession(Context context, String newAccountId, String newSessionId) {
+        publisherAccountId = newAccountId;
+        sessionId = newSessionId;
+        sessionCreated = System.currentTimeMillis();
+        sessionLastValid = sessionCreated;
+        PreferenceUtils.setStringValue(context, PREF_DEXCOM_SESSION_OWNER, getSessionOwner());
+        PreferenceUtils.setStringValue(context, PREF_DEXCOM_ACCOUNT_ID, newAccountId);
+        PreferenceUtils.setStringValue(context, PREF_DEXCOM_SESSION_ID, newSessionId);
+        PreferenceUtils.setLongValue(context, PREF_DEXCOM_SESSION_CREATED, sessionCreated);
+    }
+
+    /**
+     * Records observed session lifetime (last time the session was known to be valid)
+     * and drops the persisted session id
+     */
+    private static void onSessionExpired(Context context) {
+        if (sessionCreated > 0) {
+            long validUntil = (sessionLastValid > sessionCreated) ? sessionLastValid : System.currentTimeMillis();
+            sessionLifetime = validUntil - sessionCreated;
+            PreferenceUtils.setLongValue(context, PREF_DEXCOM_SESSION_LIFETIME, sessionLifetime);
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "DSFService: observed session lifetime: " + sessionLifetime + " ms");
+            }
+        }
+        sessionCreated = 0;
+        PreferenceUtils.setStringValue(context, PREF_DEXCOM_SESSION_ID, null);
+    }
+
+    /**
+     * Fingerprint of the configuration the persisted session belongs to
+     */
+    private static String getSessionOwner() {
+        return Integer.toHexString((serverUrl + "|" + account + "|" + secret).hashCode());
+    }
+
     /**
      * @return one of known application ids
      */
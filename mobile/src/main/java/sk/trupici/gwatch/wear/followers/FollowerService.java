@@ -34,6 +34,7 @@ import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 import androidx.work.Constraints;
 import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.ForegroundInfo;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.OutOfQuotaPolicy;
@@ -46,7 +47,10 @@ import java.security.GeneralSecurityException;
 import java.time.Duration;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -60,6 +64,7 @@ import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.common.data.GlucosePacket;
 import sk.trupici.gwatch.wear.common.util.CommonConstants;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
 import sk.trupici.gwatch.wear.receivers.AlarmReceiver;
 import sk.trupici.gwatch.wear.util.AndroidUtils;
 import sk.trupici.gwatch.wear.util.HttpUtils;
@@ -77,10 +82,16 @@ public abstract class FollowerService extends Worker {
     protected static final long DEF_SAMPLE_PERIOD_MS = 300000; // 5min
     protected static final long MISSED_SAMPLE_PERIOD_MS = 60000; // 1min
     protected static final long DEF_SAMPLE_LATENCY_MS = 15000; // 15s
+    protected static final long MIN_REQUEST_DELAY_MS = 10000; // 10s
+
+    private static final String UNIQUE_WORK_PREFIX = "FollowerService.";
 
     private static OkHttpClient httpClient;
     private static Long lastSampleTime;
 
+    /** single in-flight request guard per follower type */
+    private static final Map<Class<?>, AtomicBoolean> inFlight = new ConcurrentHashMap<>();
+
 
     abstract protected boolean isServiceEnabled(Context context);
     abstract protected List<GlucosePacket> getServerValues(Context context);
@@ -101,6 +112,21 @@ public abstract class FollowerService extends Worker {
         if (!isServiceEnabled(context)) {
             return Result.success();
         }
+
+        AtomicBoolean guard = inFlight.computeIfAbsent(getClass(), cls -> new AtomicBoolean(false));
+        if (!guard.compareAndSet(false, true)) {
+            // the running request schedules the next one when finished
+            Log.w(LOG_TAG, getClass().getSimpleName() + ": request already in progress, skipped");
+            return Result.success();
+        }
+        try {
+            return processRequest(context);
+        } finally {
+            guard.set(false);
+        }
+    }
+
+    private Result processRequest(Context context) {
         if (getLastSampleTime() == null) {
             initLastSampleTime();
         }
@@ -122,15 +148,11 @@ public abstract class FollowerService extends Worker {
                                 StringUtils.formatTime(new Date())));
 
                 if (lastPacket != null) {
-                    if (lastPacket.getTimestamp() != 0) {
-                        setLastSampleTime(lastPacket.getTimestamp());
-                    }
-
-                    for (int i = packets.size() - 1; i >= 0; i--) {
-                        GWatchApplication.getDispatcher().dispatch(packets.get(i));
-                    }
+                    // same path as the stream, values already pushed are not dispatched again
+                    dispatchNewPackets(packets);
                 }
             }
+            onRequestCompleted(context);
         } catch (TooManyRequestsException e) {
             // process reschedule
             String retryAfter = e.getRetryAfter();
@@ -225,6 +247,29 @@ public abstract class FollowerService extends Worker {
     }
 
 
+    /**
+     * Dispatches packets (ordered newest first) newer than the last known sample.
+     * Packets without timestamp cannot be filtered and are always dispatched.
+     * @return number of dispatched packets
+     */
+    protected static synchronized int dispatchNewPackets(List<GlucosePacket> packets) {
+        Long lastTime = lastSampleTime;
+        int count = 0;
+        for (int i = packets.size() - 1; i >= 0; i--) {
+            GlucosePacket packet = packets.get(i);
+            if (packet.getTimestamp() == 0) {
+                GWatchApplication.getDispatcher().dispatch(packet);
+                count++;
+            } else if (lastTime == null || packet.getTimestamp() > lastTime) {
+                GWatchApplication.getDispatcher().dispatch(packet);
+                lastTime = packet.getTimestamp();
+                count++;
+            }
+        }
+        lastSampleTime = lastTime;
+        return count;
+    }
+
     protected static void reset() {
         httpClient = null;
         lastSampleTime = null;
@@ -236,7 +281,17 @@ public abstract class FollowerService extends Worker {
     }
 
     protected void initLastSampleTime() {
-        setLastSampleTime(System.currentTimeMillis() - getSamplePeriodMs() - getSampleToRequestDelay());
+        long defTime = System.currentTimeMillis() - getSamplePeriodMs() - getSampleToRequestDelay();
+        // continue from stored history so the gap since the last known sample gets backfilled
+        GlucoseStore.Record last = GlucoseStore.getInstance(GWatchApplication.getAppContext()).getLast();
+        setLastSampleTime(last != null && last.timestamp < defTime ? last.timestamp : defTime);
+    }
+
+    /**
+     * Called after received values were dispatched, suitable for housekeeping
+     * which should not delay the delivery of values (e.g. session refresh)
+     */
+    protected void onRequestCompleted(Context context) {
     }
 
     protected void scheduleNewRequest(Context context, long delayMs) {
@@ -275,9 +330,14 @@ public abstract class FollowerService extends Worker {
      * Returns delay in ms for scheduling next request to NS server
      * @param packet last received glucose packet
      * @param processingTime timestamp of this run of processing loop
-     * @return delay in milliseconds (from now) when to request next value from NS server
+     * @return delay in milliseconds (from now) when to request next value from NS server,
+     *          at least {@link #MIN_REQUEST_DELAY_MS} so a slow request does not fire the next one immediately
      */
     private long getNextRequestDelay(GlucosePacket packet, long processingTime) {
+        return Math.max(MIN_REQUEST_DELAY_MS, getRemainingPeriod(packet, processingTime));
+    }
+
+    private long getRemainingPeriod(GlucosePacket packet, long processingTime) {
         Long sampleTime = (packet != null) ? Long.valueOf(packet.getTimestamp()) : getLastSampleTime();
         if (sampleTime != null && sampleTime < processingTime) {
             // received sample with valid timestamp
@@ -366,12 +426,25 @@ public abstract class FollowerService extends Worker {
             Log.d(LOG_TAG, cls.getSimpleName() + ": initialization failed: " + e.getLocalizedMessage());
         }
 
-        scheduleFollowerWork(context, 0, cls);
+        // let the running request finish, then run a new one with updated settings
+        scheduleFollowerWork(context, 0, cls, ExistingWorkPolicy.APPEND_OR_REPLACE);
     }
 
+    /**
+     * Schedules a follower request unless one of the same follower type is already pending or running.
+     * Use {@link ExistingWorkPolicy#APPEND_OR_REPLACE} for requests which must not be dropped.
+     */
     public static void scheduleFollowerWork(Context context, long processingTime, Class<? extends FollowerService> cls) {
+        scheduleFollowerWork(context, processingTime, cls, ExistingWorkPolicy.KEEP);
+    }
+
+    /**
+     * Schedules a follower request as unique work of the follower type
+     * @param policy how to treat pending or running request of the same follower type
+     */
+    public static void scheduleFollowerWork(Context context, long processingTime, Class<? extends FollowerService> cls, ExistingWorkPolicy policy) {
         if (BuildConfig.DEBUG) {
-            Log.i(LOG_TAG, cls.getSimpleName() + ": schedule request");
+            Log.i(LOG_TAG, cls.getSimpleName() + ": schedule request (" + policy + ")");
         }
         OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(cls)
                         .setConstraints(new Constraints.Builder()
@@ -383,6 +456,6 @@ public abstract class FollowerService extends Worker {
         }
 
         WorkManager workManager = WorkManager.getInstance(context);
-        workManager.enqueue(builder.build());
+        workManager.enqueueUniqueWork(UNIQUE_WORK_PREFIX + cls.getSimpleName(), policy, builder.build());
     }
 }
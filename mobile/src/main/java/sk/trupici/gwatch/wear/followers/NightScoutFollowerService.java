@@ -26,6 +26,9 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.work.WorkerParameters;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
@@ -58,6 +61,7 @@ public class NightScoutFollowerService extends FollowerService {
     private static final int DEF_NS_SAMPLE_LATENCY_MS = 15;
     private static final int DEF_NS_SAMPLE_FAST_PERIOD_MS = 60000;
     private static final int DEF_NS_MISSED_SAMPLE_FAST_PERIOD_MS = 0; // disable missed sample feature
+    private static final long NS_STREAM_WATCHDOG_PERIOD_MS = 900000; // 15min
 
     public static final String PREF_NS_ENABLED = "pref_data_source_nightscout_enable";
     private static final String PREF_NS_URL = "cfg_nightscout_url";
@@ -66,13 +70,16 @@ public class NightScoutFollowerService extends FollowerService {
     private static final String PREF_NS_TOKEN = "cfg_nightscout_token";
     private static final String PREF_NS_REQUEST_LATENCY = "cfg_nightscout_latency";
     private static final String PREF_NS_FAST_SAMPLE_PERIOD = "cfg_nightscout_fast_period";
+    private static final String PREF_NS_PUSH_MODE = "cfg_nightscout_push_mode";
 
     private static String apiSecret;
     private static String nsToken;
     private static String serverUrl;
+    private static String baseUrl;
 
     private static long sampleToRequestDelay = DEF_NS_SAMPLE_LATENCY_MS * 1000L;
     private static boolean isFastSamplingEnabled = false;
+    private static boolean isPushModeEnabled = false;
 
     public NightScoutFollowerService(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
@@ -83,9 +90,12 @@ public class NightScoutFollowerService extends FollowerService {
         Context context = GWatchApplication.getAppContext();
         nsToken = getNsToken(context);
         apiSecret = getApiSecret(context);
+        baseUrl = PreferenceUtils.getStringValue(context, PREF_NS_URL, null);
         serverUrl = getServerUrl(context);
         sampleToRequestDelay = PreferenceUtils.getStringValueAsInt(context, PREF_NS_REQUEST_LATENCY, DEF_NS_SAMPLE_LATENCY_MS) * 1000L;
         isFastSamplingEnabled = PreferenceUtils.isConfigured(context, PREF_NS_FAST_SAMPLE_PERIOD, false);
+        isPushModeEnabled = PreferenceUtils.isConfigured(context, PREF_NS_PUSH_MODE, false);
+        NightScoutStreamClient.getInstance().stop();
     }
 
     @Override
@@ -119,6 +129,15 @@ public class NightScoutFollowerService extends FollowerService {
         return isFastSamplingEnabled ? DEF_NS_MISSED_SAMPLE_FAST_PERIOD_MS : super.getMissedSamplePeriodMs();
     }
 
+    @Override
+    protected void scheduleNewRequest(Context context, long delayMs) {
+        if (isPushModeEnabled && NightScoutStreamClient.getInstance().isHealthy()) {
+            // values are pushed, just keep watchdog running
+            delayMs = Math.max(delayMs, NS_STREAM_WATCHDOG_PERIOD_MS);
+        }
+        super.scheduleNewRequest(context, delayMs);
+    }
+
     @Override
     protected List<GlucosePacket> getServerValues(Context context) {
         Request.Builder builder = new Request.Builder();
@@ -128,6 +147,15 @@ public class NightScoutFollowerService extends FollowerService {
                 return null;
             }
 
+            if (isPushModeEnabled) {
+                NightScoutStreamClient stream = NightScoutStreamClient.getInstance();
+                if (stream.isHealthy()) {
+                    return null; // no polling while stream is alive
+                }
+                stream.start(context, getHttpClient(context), NightScoutStreamClient.getSocketUrl(baseUrl),
+                        apiSecret, nsToken, streamListener);
+            }
+
             UiUtils.showMessage(context, context.getString(R.string.follower_data_request, SRC_LABEL));
             builder = builder.url(serverUrl);
             if (apiSecret != null) {
@@ -168,6 +196,44 @@ public class NightScoutFollowerService extends FollowerService {
         return SRC_LABEL;
     }
 
+    private static final NightScoutStreamClient.Listener streamListener = new NightScoutStreamClient.Listener() {
+        @Override
+        public void onDataUpdate(JSONObject data) {
+            List<GlucosePacket> packets = parseStreamValues(data.optJSONArray("sgvs"));
+            if (!packets.isEmpty()) {
+                dispatchNewPackets(packets);
+            }
+        }
+
+        @Override
+        public void onConnectionLost() {
+            // fall back to polling until stream is restored
+            scheduleFollowerWork(GWatchApplication.getAppContext(), 0, NightScoutFollowerService.class);
+        }
+    };
+
+    /**
+     * Parses {@code sgvs} array of NS {@code dataUpdate} event and returns packets ordered newest first
+     */
+    private static List<GlucosePacket> parseStreamValues(JSONArray sgvs) {
+        List<GlucosePacket> packets = new ArrayList<>();
+        if (sgvs == null) {
+            return packets;
+        }
+        for (int i = 0; i < sgvs.length(); i++) {
+            JSONObject sgv = sgvs.optJSONObject(i);
+            if (sgv == null || !sgv.has("mgdl") || !sgv.has("mills")) {
+                continue;
+            }
+            short glucose = (short) Math.round(sgv.optDouble("mgdl", 0));
+            long timestamp = sgv.optLong("mills");
+            String trend = sgv.optString("direction", null);
+            packets.add(new GlucosePacket(glucose, timestamp, (byte)0, toTrend(trend), trend, SRC_LABEL_SHORT));
+        }
+        packets.sort((p1, p2) -> Long.compare(p2.getTimestamp(), p1.getTimestamp()));
+        return packets;
+    }
+
     List<GlucosePacket> parseValues(String nsValue) {
         List<GlucosePacket> packets = new ArrayList<>();
         if (nsValue == null) {
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.followers;
+
+import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import sk.trupici.gwatch.wear.BuildConfig;
+
+/**
+ * Minimal Socket.IO (Engine.IO v4, websocket transport only) client
+ * for NightScout {@code dataUpdate} channel.
+ *
+ * Liveness is derived from Engine.IO heartbeats sent by the server.
+ * Reconnection uses exponential backoff, but it is postponed while the device is idle (Doze)
+ * until the network becomes available again or the follower watchdog runs in a maintenance window.
+ */
+public class NightScoutStreamClient extends WebSocketListener {
+
+    public interface Listener {
+        void onDataUpdate(JSONObject data);
+        void onConnectionLost();
+    }
+
+    private static final String SOCKET_PATH = "/socket.io/?EIO=4&transport=websocket";
+
+    private static final String EIO_OPEN = "0";
+    private static final String EIO_PING = "2";
+    private static final String EIO_PONG = "3";
+    private static final String EIO_MESSAGE = "4";
+
+    private static final String SIO_CONNECT = "0";
+    private static final String SIO_EVENT = "2";
+    private static final String SIO_ACK = "3";
+
+    private static final String EVENT_DATA_UPDATE = "dataUpdate";
+    private static final int AUTHORIZE_ACK_ID = 0;
+    private static final int HISTORY_HOURS = 1;
+
+    private static final long DEF_PING_INTERVAL_MS = 25000;
+    private static final long DEF_PING_TIMEOUT_MS = 20000;
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 300000; // 5min
+
+    private static NightScoutStreamClient instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Context context;
+    private OkHttpClient httpClient;
+    private String socketUrl;
+    private String apiSecret;
+    private String token;
+    private Listener listener;
+
+    private WebSocket webSocket;
+    private boolean authorized;
+    private long lastHeartbeat;
+    private long pingInterval = DEF_PING_INTERVAL_MS;
+    private long pingTimeout = DEF_PING_TIMEOUT_MS;
+    private long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    private final Runnable livenessCheck = this::checkLiveness;
+    private final Runnable reconnect = this::reconnect;
+
+    public static synchronized NightScoutStreamClient getInstance() {
+        if (instance == null) {
+            instance = new NightScoutStreamClient();
+        }
+        return instance;
+    }
+
+    /**
+     * Opens the stream if it is not open yet. Repeated calls with unchanged parameters are no-op.
+     */
+    public synchronized void start(Context context, OkHttpClient httpClient, String socketUrl,
+                                   @Nullable String apiSecret, @Nullable String token, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.httpClient = httpClient.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.socketUrl = socketUrl;
+        this.apiSecret = apiSecret;
+        this.token = token;
+        this.listener = listener;
+
+        registerNetworkCallback();
+        if (webSocket == null) {
+            connect();
+        }
+    }
+
+    /**
+     * Closes the stream and stops all reconnection attempts.
+     */
+    public synchronized void stop() {
+        handler.removeCallbacks(reconnect);
+        handler.removeCallbacks(livenessCheck);
+        unregisterNetworkCallback();
+        if (webSocket != null) {
+            webSocket.close(1000, null);
+            webSocket = null;
+        }
+        authorized = false;
+        listener = null;
+        socketUrl = null;
+    }
+
+    /**
+     * Returns true if the stream is authorized and the last heartbeat is recent enough
+     */
+    public synchronized boolean isHealthy() {
+        return webSocket != null && authorized
+                && SystemClock.elapsedRealtime() - lastHeartbeat < pingInterval + pingTimeout;
+    }
+
+    public static String getSocketUrl(String baseUrl) {
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        if (baseUrl.endsWith("/api/v1")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - "/api/v1".length());
+        }
+        return baseUrl + SOCKET_PATH;
+    }
+
+    private synchronized void connect() {
+        if (socketUrl == null || webSocket != null) {
+            return;
+        }
+        if (isDeviceIdle()) {
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "NSStream: device idle, connection postponed");
+            }
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "NSStream: connecting...");
+        }
+        authorized = false;
+        lastHeartbeat = SystemClock.elapsedRealtime();
+        webSocket = httpClient.newWebSocket(new Request.Builder().url(socketUrl).build(), this);
+    }
+
+    private synchronized void reconnect() {
+        if (webSocket != null) {
+            webSocket.cancel();
+            webSocket = null;
+        }
+        connect();
+    }
+
+    private synchronized void scheduleReconnect() {
+        handler.removeCallbacks(reconnect);
+        if (socketUrl == null) {
+            return;
+        }
+        handler.postDelayed(reconnect, reconnectDelay);
+        reconnectDelay = Math.min(2 * reconnectDelay, MAX_RECONNECT_DELAY_MS);
+    }
+
+    private synchronized void checkLiveness() {
+        if (webSocket == null) {
+            return;
+        }
+        if (SystemClock.elapsedRealtime() - lastHeartbeat >= pingInterval + pingTimeout) {
+            Log.w(LOG_TAG, "NSStream: heartbeat timeout");
+            onConnectionFailed(webSocket);
+        } else {
+            handler.postDelayed(livenessCheck, pingInterval + pingTimeout);
+        }
+    }
+
+    @Override
+    public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
+        synchronized (this) {
+            if (webSocket != this.webSocket) {
+                return;
+            }
+            lastHeartbeat = SystemClock.elapsedRealtime();
+        }
+        try {
+            if (text.startsWith(EIO_PING)) {
+                webSocket.send(EIO_PONG);
+            } else if (text.startsWith(EIO_OPEN)) {
+                onEngineOpen(webSocket, new JSONObject(text.substring(EIO_OPEN.length())));
+            } else if (text.startsWith(EIO_MESSAGE + SIO_CONNECT)) {
+                authorize(webSocket);
+            } else if (text.startsWith(EIO_MESSAGE + SIO_ACK + AUTHORIZE_ACK_ID)) {
+                onAuthorized(webSocket, new JSONArray(text.substring(3)));
+            } else if (text.startsWith(EIO_MESSAGE + SIO_EVENT)) {
+                onEvent(new JSONArray(text.substring(2)));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "NSStream: failed to parse message: " + text, e);
+        }
+    }
+
+    private void onEngineOpen(WebSocket webSocket, JSONObject handshake) {
+        synchronized (this) {
+            pingInterval = handshake.optLong("pingInterval", DEF_PING_INTERVAL_MS);
+            pingTimeout = handshake.optLong("pingTimeout", DEF_PING_TIMEOUT_MS);
+            handler.removeCallbacks(livenessCheck);
+            handler.postDelayed(livenessCheck, pingInterval + pingTimeout);
+        }
+        webSocket.send(EIO_MESSAGE + SIO_CONNECT);
+    }
+
+    private void authorize(WebSocket webSocket) throws JSONException {
+        JSONObject auth = new JSONObject();
+        auth.put("client", "web");
+        auth.put("history", HISTORY_HOURS);
+        if (apiSecret != null) {
+            auth.put("secret", apiSecret);
+        }
+        if (token != null) {
+            auth.put("token", token);
+        }
+        JSONArray event = new JSONArray();
+        event.put("authorize");
+        event.put(auth);
+        webSocket.send(EIO_MESSAGE + SIO_EVENT + AUTHORIZE_ACK_ID + event);
+    }
+
+    private void onAuthorized(WebSocket webSocket, JSONArray ack) {
+        JSONObject result = ack.optJSONObject(0);
+        if (result == null || !result.optBoolean("read", false)) {
+            Log.e(LOG_TAG, "NSStream: not authorized to read data");
+            onConnectionFailed(webSocket);
+            return;
+        }
+        synchronized (this) {
+            authorized = true;
+            reconnectDelay = MIN_RECONNECT_DELAY_MS;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "NSStream: authorized");
+        }
+    }
+
+    private void onEvent(JSONArray event) {
+        if (!EVENT_DATA_UPDATE.equals(event.optString(0))) {
+            return;
+        }
+        JSONObject data = event.optJSONObject(1);
+        Listener listener = this.listener;
+        if (data != null && listener != null) {
+            listener.onDataUpdate(data);
+        }
+    }
+
+    @Override
+    public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+        onConnectionFailed(webSocket);
+    }
+
+    @Override
+    public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
+        Log.w(LOG_TAG, "NSStream: connection failed: " + t.getLocalizedMessage());
+        onConnectionFailed(webSocket);
+    }
+
+    private void onConnectionFailed(WebSocket webSocket) {
+        Listener listener;
+        synchronized (this) {
+            if (webSocket != this.webSocket) {
+                return;
+            }
+            webSocket.cancel();
+            this.webSocket = null;
+            handler.removeCallbacks(livenessCheck);
+            listener = authorized ? this.listener : null;
+            authorized = false;
+            scheduleReconnect();
+        }
+        if (listener != null) {
+            listener.onConnectionLost();
+        }
+    }
+
+    private boolean isDeviceIdle() {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && powerManager.isDeviceIdleMode();
+    }
+
+    private void registerNetworkCallback() {
+        if (networkCallback != null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                synchronized (NightScoutStreamClient.this) {
+                    if (webSocket == null && socketUrl != null) {
+                        reconnectDelay = MIN_RECONNECT_DELAY_MS;
+                        handler.removeCallbacks(reconnect);
+                        handler.post(reconnect);
+                    }
+                }
+            }
+        };
+        try {
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "NSStream: failed to register network callback", e);
+            networkCallback = null;
+        }
+    }
+
+    private void unregisterNetworkCallback() {
+        if (networkCallback == null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "NSStream: failed to unregister network callback", e);
+        }
+        networkCallback = null;
+    }
+}
@@ -26,6 +26,8 @@ import android.content.Intent;
 import android.os.PowerManager;
 import android.util.Log;
 
+import androidx.work.ExistingWorkPolicy;
+
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
@@ -52,19 +54,20 @@ public class AlarmReceiver extends BroadcastReceiver {
         PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
         wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
 
-        AlarmUtils.evaluateSchedule(intent.getExtras());
+        AlarmUtils.evaluateSchedule(context, intent.getExtras());
 
         try {
             if (BuildConfig.DEBUG) {
                 Log.i(GWatchApplication.LOG_TAG, "Alarm received: " + intent);
             }
 
+            // request loop continues by this alarm, queue after a still running request instead of dropping it
             if (PreferenceUtils.isConfigured(context, NightScoutFollowerService.PREF_NS_ENABLED, false)) {
-                FollowerService.scheduleFollowerWork(context, processingTime, NightScoutFollowerService.class);
+                FollowerService.scheduleFollowerWork(context, processingTime, NightScoutFollowerService.class, ExistingWorkPolicy.APPEND_OR_REPLACE);
             } else if (PreferenceUtils.isConfigured(context, DexcomShareFollowerService.PREF_DEXCOM_ENABLED, false)) {
-                FollowerService.scheduleFollowerWork(context, processingTime, DexcomShareFollowerService.class);
+                FollowerService.scheduleFollowerWork(context, processingTime, DexcomShareFollowerService.class, ExistingWorkPolicy.APPEND_OR_REPLACE);
             } else if (PreferenceUtils.isConfigured(context, LibreLinkUpFollowerService.PREF_LLU_ENABLED, false)) {
-                FollowerService.scheduleFollowerWork(context, processingTime, LibreLinkUpFollowerService.class);
+                FollowerService.scheduleFollowerWork(context, processingTime, LibreLinkUpFollowerService.class, ExistingWorkPolicy.APPEND_OR_REPLACE);
             } else {
                 if (GWatchApplication.isDebugEnabled()) {
                     UiUtils.showMessage(context, context.getString(R.string.wakeup_received));
@@ -23,13 +23,23 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.graphics.Bitmap;
+import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import android.widget.RemoteViews;
 
 import androidx.annotation.Nullable;
+
+import java.util.Arrays;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
@@ -37,11 +47,14 @@ import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.common.data.GlucosePacket;
+import sk.trupici.gwatch.wear.common.data.Trend;
 import sk.trupici.gwatch.wear.common.util.BgUtils;
 import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
 import sk.trupici.gwatch.wear.util.AndroidUtils;
 import sk.trupici.gwatch.wear.util.CommonConstants;
+import sk.trupici.gwatch.wear.util.GraphRenderer;
 import sk.trupici.gwatch.wear.view.MainActivity;
 
 public class NotificationService extends Service {
@@ -59,42 +72,268 @@ public class NotificationService extends Service {
 
     private static final String NO_DATA = "--";
 
+    private static final String PREF_NOTIFICATION_GRAPH = "pref_notification_graph";
+
+    private static final int MINUTE_IN_MS = 60 * 1000;
+    private static final int GRAPH_MIN_VALUE = 40;
+    private static final int GRAPH_MAX_VALUE = 400;
+    private static final int GRAPH_SLOT_MIN = 5;
+    private static final int GRAPH_SLOTS = 36; // 3 hours
+    private static final int GRAPH_WIDTH_DP = 96; // see notification_layout.xml
+    private static final int GRAPH_HEIGHT_DP = 36; // see notification_layout.xml
+    private static final float GRAPH_LINE_WIDTH_DP = 1.5f;
+    private static final float GRAPH_DOT_RADIUS_DP = 2.5f;
+
+    private static final Object lock = new Object();
+
     private static Notification currentNotification;
+    private static NotificationCompat.Builder notificationBuilder;
+    private static String currentText;
+    private static String currentTimeText;
     private static long lastBgUpdate;
 
+    /** timestamp of the displayed glucose value, 0 if a plain text is displayed */
+    private static long sampleTimestamp;
+
+    // mini-graph, rendered only when a new sample arrives
+    private static final GraphRenderer graphRenderer = new GraphRenderer(GRAPH_MIN_VALUE, GRAPH_MAX_VALUE);
+    private static final int[] graphColors = new int[GRAPH_MAX_VALUE - GRAPH_MIN_VALUE + 1];
+    private static final int[] graphValues = new int[GRAPH_SLOTS];
+    private static long graphStartTime;
+    private static Bitmap graphBitmap;
+    /** custom view with the current graph, minute updates set text and time views on its copy */
+    private static RemoteViews contentTemplate;
+    private static final GlucoseStore.Visitor graphVisitor = (timestamp, glucose, trend) -> {
+        int slot = (int) ((timestamp - graphStartTime) / (GRAPH_SLOT_MIN * MINUTE_IN_MS));
+        if (0 <= slot && slot < GRAPH_SLOTS) {
+            graphValues[slot] = glucose;
+        }
+    };
+
+    private final BroadcastReceiver timeTickReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // only the time text changes, the graph is not re-rendered
+            if (sampleTimestamp != 0) {
+                showNotification(GWatchApplication.getAppContext(), currentText);
+            }
+        }
+    };
+
+    /** running service instance bound in-process, null until bound */
+    private static volatile NotificationService boundService;
+
+    private static final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            boundService = ((LocalBinder) binder).getService();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            boundService = null;
+        }
+    };
+
+    public class LocalBinder extends Binder {
+        NotificationService getService() {
+            return NotificationService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
     public static void startService(Context context) {
         Intent startIntent = new Intent(context, NotificationService.class);
         startIntent.setAction(ACTION_START);
 
         ContextCompat.startForegroundService(context, startIntent);
+
+        // keep the service bound so updates can be passed directly
+        Context appContext = context.getApplicationContext();
+        appContext.bindService(new Intent(appContext, NotificationService.class), connection, Context.BIND_AUTO_CREATE);
     }
 
     public static void updateBgData(Context context, GlucosePacket packet) {
+        updateBgData(context, packet.getGlucoseValue(), packet.getTimestamp(), packet.getTrend(), packet.getSource());
+    }
+
+    public static void updateBgData(Context context, int glucose, long timestamp, Trend trend, String source) {
         if (BuildConfig.DEBUG) {
-            Log.d(LOG_TAG, "updateBgPacket: " + packet.toText(context, null));
+            Log.d(LOG_TAG, "updateBgData: " + glucose + ", " + timestamp + ", " + trend + ", " + source);
         }
 
         long ignoreDataThreshold = System.currentTimeMillis() - sk.trupici.gwatch.wear.common.util.CommonConstants.HOUR_IN_MILLIS;
-        if (packet.getTimestamp() <= lastBgUpdate || packet.getTimestamp() < ignoreDataThreshold) {
-            Log.d(LOG_TAG, "updateBgPacket: ignoring packet due to old data");
+        if (timestamp <= lastBgUpdate || timestamp < ignoreDataThreshold) {
+            Log.d(LOG_TAG, "updateBgData: ignoring packet due to old data");
             return;
         }
 
-        lastBgUpdate = packet.getTimestamp();
+        lastBgUpdate = timestamp;
 
+        NotificationService service = boundService;
+        if (service != null) {
+            service.showBgValue(context, glucose, timestamp, trend, source);
+            return;
+        }
+
+        // not bound yet
         Intent startIntent = new Intent(context, NotificationService.class);
         startIntent.setAction(ACTION_BG_VALUE);
-        startIntent.putExtra("data", packet.getData());
+        startIntent.putExtra("glucose", glucose);
+        startIntent.putExtra("timestamp", timestamp);
+        startIntent.putExtra("trend", trend == null ? Trend.UNKNOWN.ordinal() : trend.ordinal());
+        startIntent.putExtra("source", source);
         ContextCompat.startForegroundService(context, startIntent);
     }
 
     public static void updateText(Context context, String text) {
+        NotificationService service = boundService;
+        if (service != null) {
+            service.showText(text == null || text.length() == 0 ? NO_DATA : text);
+            return;
+        }
+
         Intent startIntent = new Intent(context, NotificationService.class);
         startIntent.setAction(ACTION_TEXT);
         startIntent.putExtra("text", text);
         ContextCompat.startForegroundService(context, startIntent);
     }
 
+    private void showText(String text) {
+        sampleTimestamp = 0;
+        showNotification(GWatchApplication.getAppContext(), text);
+    }
+
+    private void showBgValue(Context context, int glucose, long timestamp, Trend trend, String source) {
+        String text = formatBgText(context, glucose, trend, source);
+        if (glucose == 0) {
+            showText(text);
+            return;
+        }
+        sampleTimestamp = timestamp;
+        if (isGraphEnabled(context)) {
+            synchronized (lock) { // bitmap is shared with minute tick updates
+                renderGraph(context, timestamp);
+                contentTemplate = new RemoteViews(context.getPackageName(), R.layout.notification_layout);
+                contentTemplate.setImageViewBitmap(R.id.notification_graph, graphBitmap);
+            }
+        }
+        showNotification(context, text);
+    }
+
+    /**
+     * Updates the notification, skipped if neither the text nor the time text is changed
+     */
+    private static void showNotification(Context context, String text) {
+        String timeText = sampleTimestamp == 0 ? null : formatTimeText(sampleTimestamp);
+        RemoteViews contentView = null;
+        synchronized (lock) {
+            if (text.equals(currentText) && (timeText == null ? currentTimeText == null : timeText.equals(currentTimeText))) {
+                return;
+            }
+            if (timeText != null && contentTemplate != null && isGraphEnabled(context)) {
+                // template keeps the graph, only the texts are set
+                contentView = copyTemplate(contentTemplate);
+                contentView.setTextViewText(R.id.notification_text, text);
+                contentView.setTextViewText(R.id.notification_time, timeText);
+            }
+            currentNotification = createNotification(context, text, contentView);
+            currentText = text;
+            currentTimeText = timeText;
+
+            // posted under the lock, the graph bitmap must not be re-rendered while it is parceled
+            NotificationManager mNotificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            mNotificationManager.notify(NOTIFICATION_ID, currentNotification);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static RemoteViews copyTemplate(RemoteViews template) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? new RemoteViews(template) : template.clone();
+    }
+
+    private static String formatTimeText(long timestamp) {
+        int delta = (int) Math.max(0, (System.currentTimeMillis() - timestamp) / MINUTE_IN_MS);
+        return delta > 60 ? String.format("%d hr %d min", delta/60, delta%60) : String.format("%d min", delta);
+    }
+
+    private static boolean isGraphEnabled(Context context) {
+        return PreferenceUtils.isConfigured(context, PREF_NOTIFICATION_GRAPH, true);
+    }
+
+    /**
+     * Renders recent glucose values into the reusable graph bitmap
+     */
+    private static void renderGraph(Context context, long timestamp) {
+        long startTime = SystemClock.elapsedRealtimeNanos();
+
+        graphStartTime = (timestamp / MINUTE_IN_MS - (long) (GRAPH_SLOTS - 1) * GRAPH_SLOT_MIN) * MINUTE_IN_MS;
+        Arrays.fill(graphValues, 0);
+        GlucoseStore.getInstance(context).query(graphStartTime, timestamp + 1, graphVisitor);
+
+        float density = context.getResources().getDisplayMetrics().density;
+        if (graphBitmap == null) {
+            graphBitmap = Bitmap.createBitmap(Math.round(GRAPH_WIDTH_DP * density), Math.round(GRAPH_HEIGHT_DP * density), Bitmap.Config.ARGB_8888);
+        }
+        updateGraphColors(context);
+
+        float radius = GRAPH_DOT_RADIUS_DP * density;
+        float step = (graphBitmap.getWidth() - 2 * radius) / (GRAPH_SLOTS - 1);
+        graphRenderer.begin(graphBitmap, radius, graphBitmap.getHeight() - radius, graphColors);
+        int prev = -1;
+        for (int i = 0; i < GRAPH_SLOTS; i++) {
+            if (graphValues[i] == 0) {
+                continue;
+            }
+            if (prev >= 0) {
+                graphRenderer.drawSegment(radius + prev * step, graphValues[prev], radius + i * step, graphValues[i], GRAPH_LINE_WIDTH_DP * density);
+            }
+            prev = i;
+        }
+        if (prev >= 0) {
+            graphRenderer.drawDot(radius + prev * step, graphValues[prev], radius);
+        }
+        graphRenderer.end();
+
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "renderGraph: " + (SystemClock.elapsedRealtimeNanos() - startTime) / 1000 + " us, "
+                    + graphBitmap.getByteCount() + " bytes");
+        }
+    }
+
+    private static void updateGraphColors(Context context) {
+        int hypo = PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hypo", 70);
+        int low = PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_low", 80);
+        int high = PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_high", 170);
+        int hyper = PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hyper", 270);
+        int hypoColor = ContextCompat.getColor(context, R.color.def_bg_hypo_color);
+        int lowColor = ContextCompat.getColor(context, R.color.def_bg_low_color);
+        int inRangeColor = ContextCompat.getColor(context, R.color.def_bg_in_range_color);
+        int highColor = ContextCompat.getColor(context, R.color.def_bg_high_color);
+        int hyperColor = ContextCompat.getColor(context, R.color.def_bg_hyper_color);
+        for (int i = 0; i < graphColors.length; i++) {
+            int value = i + GRAPH_MIN_VALUE;
+            graphColors[i] = value <= hypo ? hypoColor
+                    : value <= low ? lowColor
+                    : value < high ? inRangeColor
+                    : value < hyper ? highColor
+                    : hyperColor;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        registerReceiver(timeTickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(timeTickReceiver);
+        super.onDestroy();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (BuildConfig.DEBUG) {
@@ -105,28 +344,72 @@ public class NotificationService extends Service {
         NotificationManager mNotificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
         startForeground(NOTIFICATION_ID, getOrCreateNotification(context));
         if (ACTION_START.equals(intent.getAction())) {
-            mNotificationManager.notify(NOTIFICATION_ID, createUpdateNotification(context, NO_DATA));
+            GlucoseStore.Record record = getLastStoredRecord(context);
+            if (record != null) {
+                showBgValue(context, record.glucose, record.timestamp, record.trend, null);
+            } else {
+                mNotificationManager.notify(NOTIFICATION_ID, createUpdateNotification(context, NO_DATA));
+            }
         } else if (ACTION_BG_VALUE.equals(intent.getAction())) {
-            GlucosePacket packet = GlucosePacket.of(intent.getByteArrayExtra("data"));
-            mNotificationManager.notify(NOTIFICATION_ID, createUpdateNotification(context, packet));
+            showBgValue(context,
+                    intent.getIntExtra("glucose", 0),
+                    intent.getLongExtra("timestamp", System.currentTimeMillis()),
+                    Trend.valueOf(intent.getIntExtra("trend", Trend.UNKNOWN.ordinal())),
+                    intent.getStringExtra("source"));
         } else if (ACTION_TEXT.equals(intent.getAction())) {
             String text = intent.getStringExtra("text");
-            mNotificationManager.notify(NOTIFICATION_ID, createUpdateNotification(context, text == null || text.length() == 0 ? NO_DATA : text));
+            showText(text == null || text.length() == 0 ? NO_DATA : text);
         }
         return START_NOT_STICKY;
     }
 
+    /**
+     * Returns the last stored glucose value if it is recent enough to be displayed
+     */
+    private static GlucoseStore.Record getLastStoredRecord(Context context) {
+        GlucoseStore.Record record = GlucoseStore.getInstance(context).getLast();
+        if (record == null || record.timestamp < System.currentTimeMillis() - sk.trupici.gwatch.wear.common.util.CommonConstants.HOUR_IN_MILLIS) {
+            return null;
+        }
+        lastBgUpdate = Math.max(lastBgUpdate, record.timestamp);
+        return record;
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 
     private static Notification createNotification(Context context, String text) {
+        return createNotification(context, text, null);
+    }
+
+    /**
+     * Updates the cached notification builder, it is created on the first use only
+     */
+    private static Notification createNotification(Context context, String text, RemoteViews contentView) {
         if (BuildConfig.DEBUG) {
             Log.i(LOG_TAG, "createNotification: " + text);
         }
 
+        NotificationCompat.Builder builder = getNotificationBuilder(context);
+        builder.setContentText(text);
+        if (contentView != null) {
+            builder.setCustomContentView(contentView)
+                    .setStyle(new NotificationCompat.DecoratedCustomViewStyle());
+        } else {
+            builder.setCustomContentView(null)
+                    .setStyle(null);
+        }
+        return builder.build();
+    }
+
+    private static NotificationCompat.Builder getNotificationBuilder(Context context) {
+        if (notificationBuilder != null) {
+            return notificationBuilder;
+        }
+
         Intent showTaskIntent = new Intent(context, MainActivity.class);
         showTaskIntent.setAction(Intent.ACTION_MAIN);
         showTaskIntent.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -137,13 +420,13 @@ public class NotificationService extends Service {
                 showTaskIntent,
                 PendingIntent.FLAG_UPDATE_CURRENT | AndroidUtils.getMutableFlag(true));
 
-        return new NotificationCompat.Builder(context, CHANNEL_ID)
+        notificationBuilder = new NotificationCompat.Builder(context, CHANNEL_ID)
                 .setSmallIcon(R.drawable.ic_watch)
                 .setCategory(NotificationCompat.CATEGORY_SERVICE)
-                .setContentText(text)
                 .setContentIntent(contentIntent)
-                .setOngoing(true)
-                .build();
+                .setOnlyAlertOnce(true)
+                .setOngoing(true);
+        return notificationBuilder;
     }
 
     private static void createNotificationChannel(Context context) {
@@ -166,7 +449,7 @@ public class NotificationService extends Service {
     }
 
     public static Notification getOrCreateNotification(Context context) {
-        synchronized (context) {
+        synchronized (lock) {
             if (currentNotification == null) {
                 createNotificationChannel(context);
                 currentNotification = createNotification(context, NO_DATA);
@@ -176,26 +459,31 @@ public class NotificationService extends Service {
     }
 
     public static Notification createUpdateNotification(Context context, GlucosePacket packet) {
-        String text = NO_DATA;
-        if (packet != null && packet.getGlucoseValue() != 0) {
-            boolean isUnitConversion = PreferenceUtils.isConfigured(context, CommonConstants.PREF_IS_UNIT_CONVERSION, false);
-            String source = StringUtils.notNullString(packet.getSource()).trim();
-            text = (source.length() > 0 ? source + ": " : "")
-                + BgUtils.formatBgValueString(packet.getGlucoseValue(), packet.getTrend(), isUnitConversion);
-        } else {
-            Log.w(LOG_TAG, "Invalid packet: " + (packet == null ? null : packet.toText(context, null)));
-        }
-        synchronized (context) {
-            currentNotification = createNotification(context, text);
-            return currentNotification;
+        if (packet == null) {
+            Log.w(LOG_TAG, "Invalid packet: null");
+            return createUpdateNotification(context, NO_DATA);
         }
+        return createUpdateNotification(context, formatBgText(context, packet.getGlucoseValue(), packet.getTrend(), packet.getSource()));
     }
 
     public static Notification createUpdateNotification(Context context, String text) {
-        synchronized (context) {
+        synchronized (lock) {
             currentNotification = createNotification(context, text);
+            currentText = text;
+            currentTimeText = null;
             return currentNotification;
         }
     }
 
+    private static String formatBgText(Context context, int glucose, Trend trend, String source) {
+        if (glucose == 0) {
+            Log.w(LOG_TAG, "Invalid glucose value: " + glucose);
+            return NO_DATA;
+        }
+        boolean isUnitConversion = PreferenceUtils.isConfigured(context, CommonConstants.PREF_IS_UNIT_CONVERSION, false);
+        source = StringUtils.notNullString(source).trim();
+        return (source.length() > 0 ? source + ": " : "")
+                + BgUtils.formatBgValueString(glucose, trend, isUnitConversion);
+    }
+
 }
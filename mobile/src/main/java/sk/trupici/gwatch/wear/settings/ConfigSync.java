@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.settings;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import androidx.preference.PreferenceManager;
+import sk.trupici.gwatch.wear.BuildConfig;
+import sk.trupici.gwatch.wear.GWatchApplication;
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.data.ConfigPacket;
+import sk.trupici.gwatch.wear.common.data.ConfigSnapshot;
+import sk.trupici.gwatch.wear.common.data.TLV;
+import sk.trupici.gwatch.wear.common.util.PacketUtils;
+import sk.trupici.gwatch.wear.util.UiUtils;
+
+import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
+
+/**
+ * Keeps the watch configuration in sync with the phone.
+ *
+ * The watch advertises version and hash of its configuration snapshot on connect and after each
+ * applied configuration packet. The phone remembers the last snapshot confirmed by the watch,
+ * so on mismatch only changed values are sent. The whole snapshot is sent only if the watch state
+ * is unknown. Requests made within {@link #SYNC_DEBOUNCE_MS} are merged into a single packet.
+ */
+public class ConfigSync {
+
+    public static final String CONFIG_HASH_PATH = "/config_hash";
+
+    private static final long SYNC_DEBOUNCE_MS = 1000;
+    private static final String SYNCED_FILE_NAME = "config_synced.dat";
+    private static final String PREF_VERSION = "config_snapshot_version";
+    private static final String PREF_HASH = "config_snapshot_hash";
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Runnable syncTask = ConfigSync::sync;
+
+    private static boolean isFullSyncRequested;
+    private static boolean isSyncedLoaded;
+    /** last snapshot confirmed by the watch */
+    private static ConfigSnapshot syncedSnapshot;
+    /** snapshot sent to the watch and not yet confirmed */
+    private static ConfigSnapshot pendingSnapshot;
+    private static boolean isPendingFull;
+
+    /**
+     * Schedules sending of configuration changes to the watch
+     * @param isFull send all values regardless of the watch state
+     */
+    public static synchronized void requestSync(boolean isFull) {
+        isFullSyncRequested |= isFull;
+        handler.removeCallbacks(syncTask);
+        handler.postDelayed(syncTask, SYNC_DEBOUNCE_MS);
+    }
+
+    /**
+     * Handles configuration hash advertised by the watch
+     */
+    public static synchronized void onWatchConfigHash(Context context, byte[] data) {
+        ConfigSnapshot.Info info = ConfigSnapshot.Info.of(data);
+        if (info == null) {
+            Log.w(LOG_TAG, "ConfigSync: invalid watch config info");
+            return;
+        }
+        loadSynced(context);
+        ConfigSnapshot current = getCurrentSnapshot(context);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "ConfigSync: watch v" + info.version + " " + Long.toHexString(info.hash)
+                    + ", phone v" + current.getVersion() + " " + Long.toHexString(current.getHash()));
+        }
+
+        if (info.hash == current.getHash()) {
+            pendingSnapshot = null;
+            setSynced(context, current);
+        } else if (pendingSnapshot != null && info.hash == pendingSnapshot.getHash()) {
+            // phone config changed in meantime
+            setSynced(context, pendingSnapshot);
+            pendingSnapshot = null;
+            requestSync(false);
+        } else if (syncedSnapshot != null && info.hash == syncedSnapshot.getHash()) {
+            requestSync(false);
+        } else if (isPendingFull && pendingSnapshot != null && pendingSnapshot.getHash() == current.getHash()) {
+            // the whole configuration was already sent, do not repeat it on each advertisement
+            Log.w(LOG_TAG, "ConfigSync: watch configuration does not match the last full sync");
+        } else {
+            // unknown watch state
+            setSynced(context, null);
+            requestSync(true);
+        }
+    }
+
+    private static synchronized void sync() {
+        Context context = GWatchApplication.getAppContext();
+        loadSynced(context);
+        ConfigSnapshot current = getCurrentSnapshot(context);
+        ConfigSnapshot base = isFullSyncRequested ? null : syncedSnapshot;
+        isFullSyncRequested = false;
+
+        List<TLV> tlvList = current.diff(base);
+        if (base != null && tlvList.isEmpty()) {
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "ConfigSync: watch configuration is up to date");
+            }
+            return;
+        }
+        tlvList.add(current.createInfoTlv(base == null));
+
+        int totalLen = 0;
+        for (TLV tlv : tlvList) {
+            totalLen += tlv.getTotalLen();
+        }
+        if (GWatchApplication.getDispatcher().dispatch(new ConfigPacket(tlvList, totalLen))) {
+            pendingSnapshot = current;
+            isPendingFull = base == null;
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "ConfigSync: sent " + (tlvList.size() - 1) + " values in " + totalLen + " bytes"
+                        + (base == null ? " (full)" : ""));
+            }
+        } else {
+            UiUtils.showToast(context, R.string.cfg_transfer_failed);
+        }
+    }
+
+    /**
+     * Builds snapshot of the current configuration, the version is increased on each change
+     */
+    static ConfigSnapshot getCurrentSnapshot(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        ConfigSnapshot snapshot = buildSnapshot(prefs);
+        int version = prefs.getInt(PREF_VERSION, 0);
+        if (prefs.getLong(PREF_HASH, 0) != snapshot.getHash()) {
+            version++;
+            prefs.edit()
+                    .putInt(PREF_VERSION, version)
+                    .putLong(PREF_HASH, snapshot.getHash())
+                    .apply();
+        }
+        snapshot.setVersion(version);
+        return snapshot;
+    }
+
+    static ConfigSnapshot buildSnapshot(SharedPreferences prefs) {
+        ConfigSnapshot snapshot = new ConfigSnapshot();
+        Map<String, ?> values = prefs.getAll();
+        for (Map.Entry<String, ConfigData> entry : PreferenceMap.data.entrySet()) {
+            Object value = values.get(entry.getKey());
+            if (value == null) {
+                continue;
+            }
+            try {
+                byte[] data = encodeValue(entry.getValue().getType(), value);
+                if (data != null) {
+                    snapshot.put(entry.getValue().getTag(), data);
+                }
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "ConfigSync: invalid value of " + entry.getKey() + ": " + value);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Encodes preference value as configuration TLV value, returns null for unsupported type
+     */
+    public static byte[] encodeValue(ConfigType type, Object value) {
+        byte[] data;
+        switch (type) {
+            case BYTE:
+                data = new byte[1];
+                data[0] = (byte) toInt(value);
+                break;
+            case WORD:
+                data = new byte[2];
+                PacketUtils.encodeShort(data, 0, (short) toInt(value));
+                break;
+            case DWORD:
+            case COLOR:
+                data = new byte[4];
+                PacketUtils.encodeInt(data, 0, toInt(value));
+                break;
+            case BOOLEAN:
+                data = new byte[1];
+                PacketUtils.encodeBoolean(data, 0, value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString()));
+                break;
+            case STRING:
+                String strValue = value == null ? null : value.toString();
+                data = new byte[PacketUtils.getNullableStrLen(strValue)];
+                PacketUtils.encodeString(data, 0, strValue);
+                break;
+            default:
+                return null;
+        }
+        return data;
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // confirmed snapshot persistence
+
+    private static void loadSynced(Context context) {
+        if (isSyncedLoaded) {
+            return;
+        }
+        isSyncedLoaded = true;
+        File file = new File(context.getFilesDir(), SYNCED_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            syncedSnapshot = ConfigSnapshot.readFrom(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "ConfigSync: failed to load synced snapshot", e);
+        }
+    }
+
+    private static void setSynced(Context context, ConfigSnapshot snapshot) {
+        syncedSnapshot = snapshot;
+        File file = new File(context.getFilesDir(), SYNCED_FILE_NAME);
+        if (snapshot == null) {
+            file.delete();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            snapshot.writeTo(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "ConfigSync: failed to save synced snapshot", e);
+        }
+    }
+}
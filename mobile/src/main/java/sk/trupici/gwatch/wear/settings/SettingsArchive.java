@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.settings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32;
+
+import sk.trupici.gwatch.wear.common.data.Trend;
+import sk.trupici.gwatch.wear.common.util.CommonConstants;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
+
+/**
+ * Streaming settings archive with preferences and glucose history.
+ *
+ * Header: magic (int), version (byte), export id (long, creation time).
+ * Followed by chunks: section (byte), payload length (int), payload, CRC32 of the payload (int).
+ * The last chunk is the {@link #SECTION_END} with empty payload.
+ * Chunks are limited to {@link #MAX_CHUNK_SIZE}, so archive is written and read in constant memory
+ * and a damaged chunk does not affect the others.
+ */
+public class SettingsArchive {
+
+    private static final int MAGIC = 0x47575358; // GWSX
+    private static final byte VERSION = 1;
+
+    public static final byte SECTION_END = 0;
+    public static final byte SECTION_PREFERENCES = 1;
+    public static final byte SECTION_GLUCOSE = 2;
+
+    private static final int MAX_CHUNK_SIZE = 16 * 1024;
+    /** timestamp (seconds), glucose, trend */
+    private static final int GLUCOSE_RECORD_SIZE = 4 + 2 + 1;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final Trend[] TRENDS = Trend.values();
+
+    /**
+     * Checks whether the stream starts with the archive header, the stream position is not changed
+     */
+    public static boolean isArchive(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        try {
+            return new DataInputStream(in).readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Exposes internal buffer to write chunk without copying
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(MAX_CHUNK_SIZE);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final ChunkBuffer chunk = new ChunkBuffer();
+        private final DataOutputStream chunkOut = new DataOutputStream(chunk);
+        private final CRC32 crc = new CRC32();
+        private byte section = SECTION_END;
+
+        public Writer(OutputStream output, long exportId) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(exportId);
+        }
+
+        public void writePreference(String key, String value) throws IOException {
+            int maxSize = 4 + 3 * (key.length() + value.length());
+            if (maxSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Preference value too long: " + key);
+            }
+            startSection(SECTION_PREFERENCES, maxSize);
+            chunkOut.writeUTF(key);
+            chunkOut.writeUTF(value);
+        }
+
+        public void writeGlucose(long timestamp, int glucose, Trend trend) throws IOException {
+            startSection(SECTION_GLUCOSE, GLUCOSE_RECORD_SIZE);
+            chunkOut.writeInt((int) (timestamp / CommonConstants.SECOND_IN_MILLIS));
+            chunkOut.writeShort(glucose);
+            chunkOut.writeByte(trend == null ? Trend.UNKNOWN.ordinal() : trend.ordinal());
+        }
+
+        /**
+         * Streams the whole glucose history of the store, returns number of written records
+         */
+        public int writeGlucoseHistory(GlucoseStore store) throws IOException {
+            try {
+                return store.query(0, Long.MAX_VALUE, (timestamp, glucose, trend) -> {
+                    try {
+                        writeGlucose(timestamp, glucose, trend);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Writes the end of archive and flushes the stream
+         */
+        public void finish() throws IOException {
+            flushChunk();
+            writeChunk(SECTION_END, new byte[0], 0);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void startSection(byte section, int requiredSize) throws IOException {
+            if (this.section != section || chunk.size() + requiredSize > MAX_CHUNK_SIZE) {
+                flushChunk();
+                this.section = section;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunk.size() > 0) {
+                writeChunk(section, chunk.getBuffer(), chunk.size());
+                chunk.reset();
+            }
+        }
+
+        private void writeChunk(byte section, byte[] data, int length) throws IOException {
+            crc.reset();
+            crc.update(data, 0, length);
+            out.writeByte(section);
+            out.writeInt(length);
+            out.write(data, 0, length);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    public interface Handler {
+        void onPreference(String key, String value);
+        void onGlucose(long timestamp, int glucose, Trend trend);
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long exportId;
+        private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        private final CRC32 crc = new CRC32();
+        private int chunkIndex;
+        private int damagedChunks;
+
+        public Reader(InputStream input) throws IOException {
+            in = new DataInputStream(input instanceof BufferedInputStream ? input : new BufferedInputStream(input, BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a settings archive");
+            }
+            if (in.readByte() != VERSION) {
+                throw new IOException("Unsupported settings archive version");
+            }
+            exportId = in.readLong();
+        }
+
+        public long getExportId() {
+            return exportId;
+        }
+
+        /** index of the next chunk */
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+
+        public int getDamagedChunks() {
+            return damagedChunks;
+        }
+
+        /**
+         * Reads the next chunk and passes its content to the handler.
+         * Glucose chunks with index lower than {@code resumeFrom} were already imported and are skipped.
+         * Damaged chunks are skipped too.
+         * @return section of the read chunk, {@link #SECTION_END} at the end of archive
+         */
+        public byte readChunk(Handler handler, int resumeFrom) throws IOException {
+            byte section = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk length: " + length);
+            }
+            in.readFully(buffer, 0, length);
+            int storedCrc = in.readInt();
+            if (section == SECTION_END) {
+                return section;
+            }
+            int index = chunkIndex++;
+
+            crc.reset();
+            crc.update(buffer, 0, length);
+            if ((int) crc.getValue() != storedCrc) {
+                damagedChunks++;
+                return section;
+            }
+            if (section == SECTION_PREFERENCES) {
+                DataInputStream chunkIn = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+                while (chunkIn.available() > 0) {
+                    handler.onPreference(chunkIn.readUTF(), chunkIn.readUTF());
+                }
+            } else if (section == SECTION_GLUCOSE && index >= resumeFrom) {
+                for (int pos = 0; pos + GLUCOSE_RECORD_SIZE <= length; pos += GLUCOSE_RECORD_SIZE) {
+                    long sec = ((buffer[pos] & 0xFFL) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+                            | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+                    int glucose = ((buffer[pos + 4] & 0xFF) << 8) | (buffer[pos + 5] & 0xFF);
+                    int trend = buffer[pos + 6] & 0xFF;
+                    handler.onGlucose(sec * CommonConstants.SECOND_IN_MILLIS, glucose,
+                            trend < TRENDS.length ? TRENDS[trend] : Trend.UNKNOWN);
+                }
+            }
+            return section;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
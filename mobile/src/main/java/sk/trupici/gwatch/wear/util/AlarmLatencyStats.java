@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.util;
+
+/**
+ * Compact histogram of alarm lateness (actual minus scheduled fire time) per scheduling strategy
+ * and selector of the cheapest strategy meeting a latency budget.
+ */
+public class AlarmLatencyStats {
+
+    /**
+     * Alarm scheduling strategies ordered by wakeup cost (cheapest first)
+     */
+    public enum Strategy {
+        /** {@code setExactAndAllowWhileIdle}, rate limited in Doze */
+        EXACT_ALLOW_WHILE_IDLE,
+        /** {@code setAlarmClock}, exits Doze completely */
+        ALARM_CLOCK
+    }
+
+    /** upper bucket limits in ms, the last bucket is open */
+    private static final long[] BUCKET_LIMITS_MS = {
+            1000, 5000, 15000, 30000, 60000, 120000, 300000, 600000, Long.MAX_VALUE
+    };
+
+    /** min number of samples to consider strategy as measured */
+    private static final int MIN_SAMPLES = 6;
+    /** counts are halved when reaching this number to prefer recent behavior */
+    private static final int MAX_SAMPLES = 288;
+
+    private final int[][] counts = new int[Strategy.values().length][BUCKET_LIMITS_MS.length];
+
+    public synchronized void record(Strategy strategy, long latenessMs) {
+        int[] hist = counts[strategy.ordinal()];
+        int bucket = 0;
+        while (latenessMs > BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        hist[bucket]++;
+        if (getCount(strategy) >= MAX_SAMPLES) {
+            for (int i = 0; i < hist.length; i++) {
+                hist[i] >>= 1;
+            }
+        }
+    }
+
+    public synchronized int getCount(Strategy strategy) {
+        int count = 0;
+        for (int value : counts[strategy.ordinal()]) {
+            count += value;
+        }
+        return count;
+    }
+
+    /**
+     * Returns upper limit of the bucket containing given percentile of lateness,
+     * or -1 if no samples were recorded
+     */
+    public synchronized long getPercentile(Strategy strategy, int percentile) {
+        int count = getCount(strategy);
+        if (count == 0) {
+            return -1;
+        }
+        int[] hist = counts[strategy.ordinal()];
+        long threshold = ((long) count * percentile + 99) / 100;
+        long sum = 0;
+        for (int i = 0; i < hist.length; i++) {
+            sum += hist[i];
+            if (sum >= threshold) {
+                return BUCKET_LIMITS_MS[i];
+            }
+        }
+        return BUCKET_LIMITS_MS[hist.length - 1];
+    }
+
+    /**
+     * Selects the cheapest strategy with given percentile of lateness within the budget.
+     * Strategies without enough samples are selected to get measured first.
+     * If no strategy meets the budget, the one with the lowest lateness is returned.
+     */
+    public synchronized Strategy select(long budgetMs, int percentile) {
+        Strategy best = null;
+        long bestLateness = Long.MAX_VALUE;
+        for (Strategy strategy : Strategy.values()) {
+            if (getCount(strategy) < MIN_SAMPLES) {
+                return strategy;
+            }
+            long lateness = getPercentile(strategy, percentile);
+            if (lateness <= budgetMs) {
+                return strategy;
+            }
+            if (best == null || lateness < bestLateness) {
+                best = strategy;
+                bestLateness = lateness;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns histogram serialized as a flat array of bucket counts
+     */
+    public synchronized int[] toArray() {
+        int[] data = new int[counts.length * BUCKET_LIMITS_MS.length];
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(counts[i], 0, data, i * BUCKET_LIMITS_MS.length, BUCKET_LIMITS_MS.length);
+        }
+        return data;
+    }
+
+    /**
+     * Restores histogram serialized by {@link #toArray()}, invalid data are ignored
+     */
+    public synchronized void fromArray(int[] data) {
+        if (data == null || data.length != counts.length * BUCKET_LIMITS_MS.length) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            System.arraycopy(data, i * BUCKET_LIMITS_MS.length, counts[i], 0, BUCKET_LIMITS_MS.length);
+        }
+    }
+}
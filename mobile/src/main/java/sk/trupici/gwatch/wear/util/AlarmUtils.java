@@ -29,6 +29,8 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 import sk.trupici.gwatch.wear.BuildConfig;
+import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
+import sk.trupici.gwatch.wear.util.AlarmLatencyStats.Strategy;
 
 import static android.content.Context.ALARM_SERVICE;
 import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
@@ -38,23 +40,59 @@ public class AlarmUtils {
     private static final String KEY_ALARM_OFFSET = "ALARM_OFFSET";
     private static final String KEY_ALARM_ELAPSED = "ALARM_ELAPSED";
     private static final String KEY_ALARM_RTC = "ALARM_RTC";
+    private static final String KEY_ALARM_STRATEGY = "ALARM_STRATEGY";
 
-    private static final long ACCEPTABLE_SCHEDULE_DELAY_MS = 60000;
-    private static boolean useAlarmClock = false;
+    public static final String PREF_ALARM_LATENCY_BUDGET = "cfg_alarm_latency_budget";
+    private static final String PREF_ALARM_LATENCY_STATS = "alarm_latency_stats";
 
-    public static void evaluateSchedule(@Nullable Bundle alarmBundle) {
+    private static final int DEF_ALARM_LATENCY_BUDGET_SEC = 60;
+    private static final int LATENCY_PERCENTILE = 90;
+    /** every n-th alarm uses the cheapest strategy to keep its statistics up to date */
+    private static final int PROBE_PERIOD = 48;
+
+    private static AlarmLatencyStats latencyStats;
+    private static Strategy strategy = Strategy.EXACT_ALLOW_WHILE_IDLE;
+    private static int alarmCounter = 0;
+
+    /**
+     * Records lateness of the received alarm and selects scheduling strategy for the next alarms
+     */
+    public static void evaluateSchedule(Context context, @Nullable Bundle alarmBundle) {
         if (alarmBundle == null) {
             return;
         }
         long offset = alarmBundle.getLong(KEY_ALARM_OFFSET, 0L);
         long elapsed = alarmBundle.getLong(KEY_ALARM_ELAPSED, 0L);
-        if (offset == 0 || elapsed == 0) {
+        int strategyIdx = alarmBundle.getInt(KEY_ALARM_STRATEGY, -1);
+        if (offset == 0 || elapsed == 0 || strategyIdx < 0 || strategyIdx >= Strategy.values().length) {
             return;
         }
 
-        if (elapsed - SystemClock.elapsedRealtime() > offset + ACCEPTABLE_SCHEDULE_DELAY_MS) {
-            useAlarmClock = true;
+        long lateness = Math.max(0, SystemClock.elapsedRealtime() - (elapsed + offset));
+        AlarmLatencyStats stats = getLatencyStats(context);
+        stats.record(Strategy.values()[strategyIdx], lateness);
+        PreferenceUtils.setIntArrayValue(context, PREF_ALARM_LATENCY_STATS, stats.toArray());
+
+        long budgetMs = PreferenceUtils.getStringValueAsInt(context, PREF_ALARM_LATENCY_BUDGET, DEF_ALARM_LATENCY_BUDGET_SEC) * 1000L;
+        strategy = stats.select(budgetMs, LATENCY_PERCENTILE);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Alarms: lateness " + lateness + " ms (" + Strategy.values()[strategyIdx] + "), next strategy: " + strategy);
+        }
+    }
+
+    private static synchronized AlarmLatencyStats getLatencyStats(Context context) {
+        if (latencyStats == null) {
+            latencyStats = new AlarmLatencyStats();
+            latencyStats.fromArray(PreferenceUtils.getIntArrayValue(context, PREF_ALARM_LATENCY_STATS));
+        }
+        return latencyStats;
+    }
+
+    private static Strategy getNextStrategy() {
+        if (++alarmCounter % PROBE_PERIOD == 0) {
+            return Strategy.values()[0];
         }
+        return strategy;
     }
 
     public static boolean scheduleAlarm(Context context, long delayMs, Intent intent, int alarmId) {
@@ -74,6 +112,8 @@ public class AlarmUtils {
             intent.putExtra(KEY_ALARM_OFFSET, delayMs);
             intent.putExtra(KEY_ALARM_ELAPSED, elapsed);
 //            intent.putExtra(KEY_ALARM_RTC, rtc);
+            Strategy alarmStrategy = getNextStrategy();
+            intent.putExtra(KEY_ALARM_STRATEGY, alarmStrategy.ordinal());
 
             PendingIntent pendingIntent = PendingIntent.getBroadcast(context, alarmId, intent, PendingIntent.FLAG_CANCEL_CURRENT | AndroidUtils.getMutableFlag(true));
 
@@ -86,7 +126,7 @@ public class AlarmUtils {
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
                 alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, elapsed + delayMs, pendingIntent);
             } else {
-                if (useAlarmClock) {
+                if (alarmStrategy == Strategy.ALARM_CLOCK) {
                     alarmManager.setAlarmClock(new AlarmManager.AlarmClockInfo(rtc + delayMs, null), pendingIntent);
                 } else {
                     alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, elapsed + delayMs, pendingIntent);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Glucose graph renderer shared by the home-screen widget and the notification.
+ * Canvas and paint are reused, so no objects are allocated while drawing.
+ * Not thread safe, each caller should use its own instance.
+ */
+public class GraphRenderer {
+
+    private final int minValue;
+    private final int maxValue;
+
+    private final Canvas canvas = new Canvas();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private float bottom;
+    private float heightScale;
+    /** color lookup table for values minValue..maxValue */
+    private int[] colors;
+
+    public GraphRenderer(int minValue, int maxValue) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        paint.setStrokeCap(Paint.Cap.ROUND);
+    }
+
+    /**
+     * Clears the bitmap and starts drawing into given graph area
+     * @param colors color lookup table for values minValue..maxValue
+     */
+    public void begin(Bitmap bitmap, float top, float bottom, int[] colors) {
+        bitmap.eraseColor(Color.TRANSPARENT);
+        canvas.setBitmap(bitmap);
+        this.bottom = bottom;
+        this.heightScale = (bottom - top) / (maxValue - minValue + 1);
+        this.colors = colors;
+    }
+
+    public void end() {
+        canvas.setBitmap(null);
+        colors = null;
+    }
+
+    public float getY(int value) {
+        return bottom - (clamp(value) - minValue) * heightScale;
+    }
+
+    public void drawDot(float x, int value, float radius) {
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(getColor(value));
+        canvas.drawCircle(x, getY(value), radius, paint);
+    }
+
+    /**
+     * Draws line between two values colored by the second one
+     */
+    public void drawSegment(float x1, int value1, float x2, int value2, float strokeWidth) {
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(strokeWidth);
+        paint.setColor(getColor(value2));
+        canvas.drawLine(x1, getY(value1), x2, getY(value2), paint);
+    }
+
+    private int getColor(int value) {
+        return colors[clamp(value) - minValue];
+    }
+
+    private int clamp(int value) {
+        return value < minValue ? minValue : Math.min(value, maxValue);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.view;
+
+import android.annotation.SuppressLint;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.console.LineRing;
+
+/**
+ * Packet console lines adapter, only visible lines are bound.
+ * Must be accessed on the UI thread only.
+ */
+public class PacketConsoleAdapter extends RecyclerView.Adapter<PacketConsoleAdapter.LineViewHolder> {
+
+    private final LineRing lines;
+
+    static class LineViewHolder extends RecyclerView.ViewHolder {
+        final TextView textView;
+
+        LineViewHolder(View view) {
+            super(view);
+            textView = (TextView) view;
+        }
+    }
+
+    public PacketConsoleAdapter(int capacity) {
+        this.lines = new LineRing(capacity);
+    }
+
+    @SuppressLint("NotifyDataSetChanged")
+    public void clear() {
+        lines.clear();
+        notifyDataSetChanged();
+    }
+
+    @SuppressLint("NotifyDataSetChanged")
+    public void append(List<String> newLines) {
+        int oldSize = lines.size();
+        int removed = 0;
+        for (String line : newLines) {
+            if (lines.add(line)) {
+                removed++;
+            }
+        }
+        if (removed >= oldSize && removed > 0) {
+            notifyDataSetChanged();
+            return;
+        }
+        if (removed > 0) {
+            notifyItemRangeRemoved(0, removed);
+        }
+        int inserted = lines.size() - (oldSize - removed);
+        if (inserted > 0) {
+            notifyItemRangeInserted(lines.size() - inserted, inserted);
+        }
+    }
+
+    @NonNull
+    @Override
+    public LineViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.packet_console_line, parent, false);
+        return new LineViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineViewHolder holder, int position) {
+        holder.textView.setText(lines.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return lines.size();
+    }
+}
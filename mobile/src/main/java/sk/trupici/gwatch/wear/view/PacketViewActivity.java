@@ -18,31 +18,45 @@
 
 package sk.trupici.gwatch.wear.view;
 
+import android.app.AlertDialog;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ScrollView;
-import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.List;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.console.PacketConsole;
 import sk.trupici.gwatch.wear.console.PacketConsoleView;
+import sk.trupici.gwatch.wear.dispatch.ConsoleDispatcher;
+import sk.trupici.gwatch.wear.dispatch.PacketCapture;
 
 public class PacketViewActivity extends AppCompatActivity implements PacketConsoleView, HorizontalSwipeDetector.SwipeListener {
 
+    private static final int[] REPLAY_SPEEDS = {1, 10, 100, 1000};
+
     protected Menu menu;
 
-    private TextView packetView;
+    private RecyclerView packetView;
+    private PacketConsoleAdapter packetAdapter;
     protected GestureDetector gestureDetector;
 
+    /** console updates are posted in order to the UI thread */
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
     private PacketConsole consoleBuffer;
 
     @Override
@@ -54,10 +68,17 @@ public class PacketViewActivity extends AppCompatActivity implements PacketConso
 
         this.consoleBuffer = GWatchApplication.getPacketConsole();
 
+        packetView = findViewById(R.id.packetView);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        packetView.setLayoutManager(layoutManager);
+        packetAdapter = new PacketConsoleAdapter(consoleBuffer.getCapacity());
+        packetView.setAdapter(packetAdapter);
+
         gestureDetector = new GestureDetector(this, new HorizontalSwipeDetector(this));
         View.OnTouchListener gestureListener = (v, event) -> gestureDetector.onTouchEvent(event);
 
-        findViewById(R.id.text_scroll).setOnTouchListener(gestureListener);
+        packetView.setOnTouchListener(gestureListener);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -78,7 +99,7 @@ public class PacketViewActivity extends AppCompatActivity implements PacketConso
     @Override
     protected void onResume() {
         super.onResume();
-        restorePacketView();
+        setConnectionStatus(consoleBuffer.getIsWatchConnected());
         consoleBuffer.registerView(this);
    }
 
@@ -130,6 +151,10 @@ public class PacketViewActivity extends AppCompatActivity implements PacketConso
                     Log.e(getClass().getSimpleName(), "onMenuOpened...unable to set icons for overflow menu", e);
                 }
             }
+            MenuItem captureItem = menu.findItem(R.id.action_capture);
+            if (captureItem != null) {
+                captureItem.setTitle(PacketCapture.isCapturing() ? R.string.action_capture_stop : R.string.action_capture_start);
+            }
         }
         return super.onPrepareOptionsMenu(menu);
     }
@@ -146,27 +171,57 @@ public class PacketViewActivity extends AppCompatActivity implements PacketConso
             consoleBuffer.init();
         } else if (id == R.id.action_reconnect) {
             GWatchApplication.getDispatcher().reconnect(this);
+        } else if (id == R.id.action_capture) {
+            toggleCapture();
+        } else if (id == R.id.action_replay) {
+            replayLastCapture();
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void toggleCapture() {
+        if (PacketCapture.isCapturing()) {
+            PacketCapture.stopCapture();
+            consoleBuffer.showText(getString(R.string.capture_stopped));
+        } else {
+            try {
+                File file = PacketCapture.startCapture(this);
+                consoleBuffer.showText(getString(R.string.capture_started, file.getName()));
+            } catch (IOException e) {
+                Log.e(GWatchApplication.LOG_TAG, "toggleCapture: failed to start capture", e);
+                consoleBuffer.showText(getString(R.string.capture_failed));
+            }
+        }
+    }
+
+    private void replayLastCapture() {
+        File file = PacketCapture.getLatestCapture(this);
+        if (file == null) {
+            consoleBuffer.showText(getString(R.string.capture_not_found));
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.replay_speed_title)
+                .setItems(R.array.replay_speeds, (dialog, which) -> {
+                    int speed = REPLAY_SPEEDS[which];
+                    consoleBuffer.showText(getString(R.string.replay_started, file.getName(), speed));
+                    PacketCapture.startReplay(file, speed, new ConsoleDispatcher());
+                })
+                .show();
+    }
+
     @Override
     protected void onDestroy() {
         consoleBuffer.unregisterView(this);
         super.onDestroy();
     }
 
-    private void restorePacketView() {
-        packetView = findViewById(R.id.packetView);
-
-        setConnectionStatus(consoleBuffer.getIsWatchConnected());
-        packetView.setText(GWatchApplication.getPacketConsole().getText());
-        scrollToBottom();
-    }
-
     private void scrollToBottom() {
         // scroll to the end (newest text)
-        packetView.post(() -> ((ScrollView)findViewById(R.id.text_scroll)).fullScroll(View.FOCUS_DOWN));
+        int count = packetAdapter.getItemCount();
+        if (count > 0) {
+            packetView.scrollToPosition(count - 1);
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -197,9 +252,14 @@ public class PacketViewActivity extends AppCompatActivity implements PacketConso
     }
 
     @Override
-    public void setText(final String text) {
-        runOnUiThread(() -> {
-            packetView.setText(text);
+    public void onLinesCleared() {
+        uiHandler.post(() -> packetAdapter.clear());
+    }
+
+    @Override
+    public void onLinesAppended(final List<String> lines) {
+        uiHandler.post(() -> {
+            packetAdapter.append(lines);
             scrollToBottom();
         });
     }
@@ -30,15 +30,17 @@ import android.util.Log;
 import android.view.GestureDetector;
 import android.view.View;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -62,19 +64,18 @@ import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.common.data.ConfigPacket;
-import sk.trupici.gwatch.wear.common.data.Packet;
-import sk.trupici.gwatch.wear.common.data.TLV;
-import sk.trupici.gwatch.wear.common.util.PacketUtils;
+import sk.trupici.gwatch.wear.common.data.Trend;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
 import sk.trupici.gwatch.wear.followers.DexcomShareFollowerService;
 import sk.trupici.gwatch.wear.followers.FollowerService;
 import sk.trupici.gwatch.wear.followers.LibreLinkUpFollowerService;
 import sk.trupici.gwatch.wear.followers.NightScoutFollowerService;
-import sk.trupici.gwatch.wear.settings.ConfigData;
-import sk.trupici.gwatch.wear.settings.ConfigType;
+import sk.trupici.gwatch.wear.settings.ConfigSync;
 import sk.trupici.gwatch.wear.settings.GlucoseLevelPreference;
 import sk.trupici.gwatch.wear.settings.PreferenceMap;
-import sk.trupici.gwatch.wear.settings.TimePreference;
+import sk.trupici.gwatch.wear.settings.SettingsArchive;
 import sk.trupici.gwatch.wear.settings.ValuePreference;
 import sk.trupici.gwatch.wear.settings.fragment.MainFragment;
 import sk.trupici.gwatch.wear.util.LangUtils;
@@ -99,8 +100,9 @@ public class SettingsActivity extends AppCompatActivity implements
 
     public static final int REQUEST_CODE_DEXCOM_PERMISSION = 10;
 
-    private static final String CONFIG_FILE_NAME = "gwatch-wear-settings.xml";
-    private static final String CONFIG_MEDIA_TYPE = "application/xml";
+    private static final String CONFIG_FILE_NAME = "gwatch-wear-settings.gws";
+    private static final String CONFIG_MEDIA_TYPE = "application/octet-stream";
+    private static final String PREF_IMPORT_CHECKPOINT = "settings_import_checkpoint";
 
     protected Map<String, Preference> changedPrefs = new HashMap<>();
 
@@ -214,6 +216,7 @@ public class SettingsActivity extends AppCompatActivity implements
                         changedPrefs.remove(key);
                     }
                     applyValuesToWatch(allPrefs);
+                    ConfigSync.requestSync(true);
                     return true;
                 } else if (id == R.id.action_apply) {
                     applyValuesToWatch(changedPrefs);
@@ -434,8 +437,7 @@ public class SettingsActivity extends AppCompatActivity implements
         Log.i(GWatchApplication.LOG_TAG, "createAndSendConfiguration: " + changedPrefs.size());
 
         boolean result = false;
-        List<TLV> config = new ArrayList<>(changedPrefs.size());
-        int totalLen = 0;
+        boolean configPrefsUpdated = false;
         boolean widgetPrefsUpdated = false;
         boolean nightscoutPrefsUpdated = false;
         boolean dexcomSharePrefsUpdated = false;
@@ -458,82 +460,8 @@ public class SettingsActivity extends AppCompatActivity implements
                 libreLinkUpPrefsUpdated = true;
             }
 
-            ConfigData mapping = PreferenceMap.data.get(pref.getKey());
-            if (mapping != null) { // direct cfg mapping
-                Integer value = null;
-                String strValue = null;
-                Boolean boolValue = null;
-                if (pref instanceof ValuePreference) {
-                    value = ((ValuePreference) pref).getValue();
-                } else if (pref instanceof TimePreference) {
-                    String time = (String)PreferenceUtils.getValue(pref);
-                    value = 60 * TimePreference.getHour(time);
-                    value += TimePreference.getMinute(time);
-                } else {
-                    Object tmpValue = PreferenceUtils.getValue(pref);
-                    if (tmpValue instanceof String) {
-                        if (mapping.getType() == ConfigType.STRING) {
-                            strValue = (String) tmpValue;
-                        } else {
-                            value = Integer.valueOf((String) tmpValue);
-                        }
-                    } else if (tmpValue instanceof Boolean) {
-                        boolValue = (Boolean)tmpValue;
-                    } else {
-                        value = (Integer) tmpValue;
-                    }
-                }
-                if (value == null && strValue == null && boolValue == null && mapping.getType() != ConfigType.STRING) {
-                    Log.w(LOG_TAG, "Null preference value: " + pref.getKey());
-                    continue;
-                }
-
-                byte[] data;
-                if (mapping.getType() == ConfigType.BYTE) {
-                    data = new byte[1];
-                    data[0] = value.byteValue();
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send BYTE: " + pref.getKey() + ": " + value);
-                    }
-                } else if (mapping.getType() == ConfigType.WORD) {
-                    data = new byte[2];
-                    PacketUtils.encodeShort(data, 0, value.shortValue());
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send WORD: " + pref.getKey() + ": " + value);
-                    }
-                } else if (mapping.getType() == ConfigType.DWORD) {
-                    data = new byte[4];
-                    PacketUtils.encodeInt(data, 0, value);
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send DWORD: " + pref.getKey() + ": " + value);
-                    }
-                } else if (mapping.getType() == ConfigType.COLOR) {
-                    data = new byte[4];
-                    PacketUtils.encodeInt(data, 0, value);
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send COLOR: " + pref.getKey() + ": " + value);
-                    }
-                } else if (mapping.getType() == ConfigType.BOOLEAN) {
-                    data = new byte[1];
-                    PacketUtils.encodeBoolean(data, 0, boolValue);
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send BOOLEAN: " + pref.getKey() + ": " + boolValue);
-                    }
-                } else if (mapping.getType() == ConfigType.STRING) {
-                    int len = PacketUtils.getNullableStrLen(strValue);
-                    data = new byte[len];
-                    PacketUtils.encodeString(data, 0, strValue);
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG,"Send STRING: " + pref.getKey() + ": "
-                                + strValue);
-                    }
-                } else {
-                    Log.w(LOG_TAG, "Skipping preference: " + pref.getKey());
-                    continue;
-                }
-                TLV tlv = new TLV(mapping.getTag(), (byte)data.length, data);
-                config.add(tlv);
-                totalLen += tlv.getTotalLen();
+            if (PreferenceMap.data.containsKey(pref.getKey())) { // direct cfg mapping
+                configPrefsUpdated = true;
             } else { // indirect cfg mapping - try to apply dedicated cfg logic
                 if (pref.getKey().startsWith("pref_widget_")) {
                     widgetPrefsUpdated = true;
@@ -541,18 +469,10 @@ public class SettingsActivity extends AppCompatActivity implements
             }
         }
 
-        if (totalLen > 0) {
-            Packet packet = new ConfigPacket(config, totalLen);
-            if (GWatchApplication.getDispatcher().dispatch(packet)) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(LOG_TAG, "Config Packet sent: " + config.size() + " in " + totalLen + " bytes");
-                }
-//                UiUtils.showToast(this, R.string.cfg_transfer_ok);
-                result = true;
-            } else {
-                UiUtils.showToast(this, R.string.cfg_transfer_failed);
-                result = false;
-            }
+        if (configPrefsUpdated) {
+            // values are taken from shared preferences and only the difference to the watch state is sent
+            ConfigSync.requestSync(false);
+            result = true;
         } else if (changedPrefs.size() > 0) {
             UiUtils.showToast(this, R.string.cfg_applied);
             result = true;
@@ -659,26 +579,23 @@ public class SettingsActivity extends AppCompatActivity implements
     }
 
     /**
-     * Export configuration to a file with provided path name
+     * Export configuration and glucose history to a file with provided path name.
+     * Values are collected on the UI thread, the file is written in background.
      */
     protected void exportSettings(Context context, Uri uri) {
-        try (OutputStream output = context.getContentResolver().openOutputStream(uri, "rwt")) {
+        if (uri == null) {
+            return;
+        }
+        Map<String, String> values = new TreeMap<>();
+        try {
             // Preferences might not be stored already!!!
-
             PreferenceScreen preferenceScreen = getVisibleFragment().getPreferenceScreen();
-            StringBuffer comment = new StringBuffer("G-Watch App");
-            if (preferenceScreen.getTitle() != null) {
-                comment.append(": ").append(preferenceScreen.getTitle());
-            } else {
-                comment.append(" Settings");
-            }
             Map<String, Preference> allPrefs = new HashMap<>();
             for (int i = 0; i < preferenceScreen.getPreferenceCount(); i++) {
                 Preference preference = preferenceScreen.getPreference(i);
                 PreferenceUtils.getAllInHierarchy(this, preference, allPrefs);
             }
 
-            Properties props = new Properties();
             for (Map.Entry<String, ?> entry : allPrefs.entrySet()) {
                 String key = entry.getKey();
                 if (key.startsWith(PreferenceUtils.DUMMY_KEY_PREFIX)) { // do not export preferences with dummy keys
@@ -691,16 +608,33 @@ public class SettingsActivity extends AppCompatActivity implements
                 }
                 Preference pref = (Preference) value;
                 Object prefValue = PreferenceUtils.getValue(pref);
-                String strValue = prefValue == null ? StringUtils.EMPTY_STRING : String.valueOf(prefValue);
-                props.put(key, strValue);
+                values.put(key, prefValue == null ? StringUtils.EMPTY_STRING : String.valueOf(prefValue));
             }
-            props.storeToXML(output, comment.toString(), "utf-8");
-            output.flush();
-            UiUtils.showToast(this, R.string.cfg_export_success);
         } catch (Throwable t) {
             Log.e(GWatchApplication.LOG_TAG, "Configuration export failed", t);
             UiUtils.showToast(this, R.string.cfg_export_failed);
+            return;
         }
+
+        new Thread(() -> {
+            boolean isSuccess = false;
+            try (OutputStream output = context.getContentResolver().openOutputStream(uri, "rwt");
+                 SettingsArchive.Writer writer = new SettingsArchive.Writer(output, System.currentTimeMillis())) {
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    writer.writePreference(entry.getKey(), entry.getValue());
+                }
+                int records = writer.writeGlucoseHistory(GlucoseStore.getInstance(context));
+                writer.finish();
+                if (BuildConfig.DEBUG) {
+                    Log.d(LOG_TAG, "exportSettings: " + values.size() + " preferences, " + records + " glucose records");
+                }
+                isSuccess = true;
+            } catch (Throwable t) {
+                Log.e(GWatchApplication.LOG_TAG, "Configuration export failed", t);
+            }
+            final boolean result = isSuccess;
+            UiUtils.runOnUiThread(() -> UiUtils.showToast(context, result ? R.string.cfg_export_success : R.string.cfg_export_failed));
+        }, "SettingsExport").start();
     }
 
 
@@ -724,52 +658,120 @@ public class SettingsActivity extends AppCompatActivity implements
     }
 
     /**
-     * Import configuration from a file with provided path name
+     * Import configuration from a file with provided path name.
+     * Glucose history is streamed to the store in background, preferences are applied on the UI thread.
+     * Interrupted import of the same archive continues with the first glucose chunk not imported yet.
+     * Preferences are applied only when the whole file was read.
+     * Legacy XML exports are supported as well.
      */
     // FIXME check inconsistency in selections?
     protected void importSettings(Context context, Uri uri) {
-        try (ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(uri, "r")) {
-            try (FileInputStream in = new FileInputStream(pfd.getFileDescriptor())) {
-                Properties props = new Properties();
-                props.loadFromXML(in);
-
-                for (Map.Entry<Object, Object> entry : props.entrySet()) {
-                    String key = (String)entry.getKey();
-                    if (BuildConfig.DEBUG) {
-                        Log.d(GWatchApplication.LOG_TAG, "Import pref: " + key + " -> " + entry.getValue());
-                    }
-                    Preference pref = findPreference(key);
-                    if (pref == null) {
-                        Log.e(LOG_TAG, "Unknown preference: " + key);
-                        continue;
-                    }
-                    if (entry.getValue() == null) {
-                        Log.i(LOG_TAG, "Preference value not set: " + key);
-                        PreferenceUtils.resetToDefaultValue(pref);
-                    } else if (pref instanceof GlucoseLevelPreference) {
-                        ((GlucoseLevelPreference) pref).setRawValue((String)entry.getValue());
-                    } else {
-                        PreferenceUtils.setValue(pref, entry.getValue());
+        if (uri == null) {
+            return;
+        }
+        new Thread(() -> {
+            Map<String, String> values = new LinkedHashMap<>();
+            boolean isSuccess = false;
+            boolean isComplete = false;
+            try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+                 BufferedInputStream in = new BufferedInputStream(new FileInputStream(pfd.getFileDescriptor()))) {
+                if (SettingsArchive.isArchive(in)) {
+                    isSuccess = readArchive(context, in, values);
+                    isComplete = true;
+                } else {
+                    Properties props = new Properties();
+                    props.loadFromXML(in);
+                    for (Map.Entry<Object, Object> entry : props.entrySet()) {
+                        values.put((String) entry.getKey(), (String) entry.getValue());
                     }
+                    isSuccess = true;
+                    isComplete = true;
+                }
+            } catch (Throwable t) {
+                Log.e(GWatchApplication.LOG_TAG, "Configuration import failed", t);
+            }
+
+            final boolean result = isSuccess;
+            if (!isComplete) {
+                // partially read file, do not apply incomplete configuration
+                UiUtils.runOnUiThread(() -> UiUtils.showToast(context, R.string.cfg_import_failed));
+                return;
+            }
+            UiUtils.runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) {
+                    // preferences are applied through the settings screen, which is gone
+                    Log.w(LOG_TAG, "importSettings: activity closed, preferences not applied");
+                    UiUtils.showToast(context, R.string.cfg_import_failed);
+                    return;
+                }
+                try {
+                    applyImportedValues(values);
+                    // TODO update prefs on current screen
+                    restartFragment();
+                } catch (Throwable t) {
+                    Log.e(GWatchApplication.LOG_TAG, "Configuration import failed", t);
                 }
+                UiUtils.showToast(context, result ? R.string.cfg_import_success : R.string.cfg_import_failed);
+            });
+        }, "SettingsImport").start();
+    }
 
-                // TODO update prefs on current screen
-                restartFragment();
-//                PreferenceFragmentCompat fragment = getVisibleFragment();
-//                fragment.getListView().get
-//                if (fragment != null) {
-//                    getSupportFragmentManager()
-//                            .beginTransaction()
-//                            .detach(fragment)
-//                            .attach(fragment)
-//                            .commitNow();
-//                }
-
-                UiUtils.showToast(this, R.string.cfg_import_success);
+    private static boolean readArchive(Context context, BufferedInputStream in, Map<String, String> values) throws IOException {
+        try (SettingsArchive.Reader reader = new SettingsArchive.Reader(in)) {
+            GlucoseStore store = GlucoseStore.getInstance(context);
+            ConfigStore configStore = ConfigStore.get(context);
+            String checkpointId = String.valueOf(reader.getExportId());
+            String[] checkpoint = configStore.getString(PREF_IMPORT_CHECKPOINT, StringUtils.EMPTY_STRING).split(":");
+            int resumeFrom = checkpoint.length == 2 && checkpoint[0].equals(checkpointId) ? Integer.parseInt(checkpoint[1]) : 0;
+            if (resumeFrom > 0) {
+                Log.i(LOG_TAG, "importSettings: resuming from chunk " + resumeFrom);
+            }
+
+            SettingsArchive.Handler handler = new SettingsArchive.Handler() {
+                @Override
+                public void onPreference(String key, String value) {
+                    values.put(key, value);
+                }
+
+                @Override
+                public void onGlucose(long timestamp, int glucose, Trend trend) {
+                    store.append(timestamp, glucose, trend);
+                }
+            };
+            while (reader.readChunk(handler, resumeFrom) != SettingsArchive.SECTION_END) {
+                if (reader.getChunkIndex() > resumeFrom) {
+                    configStore.commitString(PREF_IMPORT_CHECKPOINT, checkpointId + ":" + reader.getChunkIndex());
+                }
+            }
+            configStore.commitString(PREF_IMPORT_CHECKPOINT, null);
+
+            if (reader.getDamagedChunks() > 0) {
+                Log.e(LOG_TAG, "importSettings: damaged chunks skipped: " + reader.getDamagedChunks());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void applyImportedValues(Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            if (BuildConfig.DEBUG) {
+                Log.d(GWatchApplication.LOG_TAG, "Import pref: " + key + " -> " + entry.getValue());
+            }
+            Preference pref = findPreference(key);
+            if (pref == null) {
+                Log.e(LOG_TAG, "Unknown preference: " + key);
+                continue;
+            }
+            if (entry.getValue() == null) {
+                Log.i(LOG_TAG, "Preference value not set: " + key);
+                PreferenceUtils.resetToDefaultValue(pref);
+            } else if (pref instanceof GlucoseLevelPreference) {
+                ((GlucoseLevelPreference) pref).setRawValue(entry.getValue());
+            } else {
+                PreferenceUtils.setValue(pref, entry.getValue());
             }
-        } catch (Throwable t) {
-            Log.e(GWatchApplication.LOG_TAG, "Configuration import failed", t);
-            UiUtils.showToast(this, R.string.cfg_import_failed);
         }
     }
 
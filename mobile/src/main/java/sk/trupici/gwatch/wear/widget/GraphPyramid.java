@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.widget;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Incrementally maintained min/max buckets of glucose values in several resolutions.
+ * Level 0 buckets have the base duration, each next level has buckets twice as long.
+ * Every level is a ring of {@link #LEVEL_SIZE} buckets, levels are added until
+ * the top one covers {@link #MAX_WINDOW_MIN}.
+ */
+class GraphPyramid {
+
+    static final int MAX_WINDOW_MIN = 24 * 60;
+
+    private static final int LEVEL_SIZE = 96;
+    private static final int NO_BUCKET = -1;
+
+    private final int baseMin;
+    /** bucket number (time / bucket duration) stored in each slot */
+    private final int[][] ids;
+    private final short[][] mins;
+    private final short[][] maxs;
+
+    GraphPyramid(int baseMin) {
+        this.baseMin = baseMin;
+        int levels = 1;
+        while ((long) getBucketMin(baseMin, levels - 1) * LEVEL_SIZE < MAX_WINDOW_MIN) {
+            levels++;
+        }
+        ids = new int[levels][LEVEL_SIZE];
+        mins = new short[levels][LEVEL_SIZE];
+        maxs = new short[levels][LEVEL_SIZE];
+        clear();
+    }
+
+    GraphPyramid(GraphPyramid pyramid) {
+        this.baseMin = pyramid.baseMin;
+        ids = new int[pyramid.ids.length][];
+        mins = new short[pyramid.ids.length][];
+        maxs = new short[pyramid.ids.length][];
+        for (int level = 0; level < ids.length; level++) {
+            ids[level] = pyramid.ids[level].clone();
+            mins[level] = pyramid.mins[level].clone();
+            maxs[level] = pyramid.maxs[level].clone();
+        }
+    }
+
+    int getBaseMin() {
+        return baseMin;
+    }
+
+    void clear() {
+        for (int[] levelIds : ids) {
+            Arrays.fill(levelIds, NO_BUCKET);
+        }
+    }
+
+    /**
+     * Adds value sampled at given time (minutes from epoch) to all levels
+     */
+    void add(long timeMin, int value) {
+        if (value <= 0 || timeMin < 0) {
+            return;
+        }
+        for (int level = 0; level < ids.length; level++) {
+            int id = (int) (timeMin / getBucketMin(baseMin, level));
+            int slot = id % LEVEL_SIZE;
+            int storedId = ids[level][slot];
+            if (storedId == id) {
+                mins[level][slot] = (short) Math.min(mins[level][slot], value);
+                maxs[level][slot] = (short) Math.max(maxs[level][slot], value);
+            } else if (storedId < id) {
+                ids[level][slot] = id;
+                mins[level][slot] = (short) value;
+                maxs[level][slot] = (short) value;
+            }
+            // else: sample too old for this level
+        }
+    }
+
+    /**
+     * Aggregates min/max values of the window ending now into {@code count} equal time slots.
+     * Uses the coarsest level with buckets not longer than a slot (and still covering the window),
+     * so the work is proportional to the slot count and not to the number of samples.
+     * Empty slots are set to 0.
+     */
+    void fill(long nowMin, int windowMin, int count, int[] outMin, int[] outMax) {
+        Arrays.fill(outMin, 0, count, 0);
+        Arrays.fill(outMax, 0, count, 0);
+
+        int slotMin = Math.max(1, windowMin / count);
+        int level = 0;
+        while (level < ids.length - 1
+                && (getBucketMin(baseMin, level + 1) <= slotMin
+                    || (long) getBucketMin(baseMin, level) * LEVEL_SIZE < windowMin)) {
+            level++;
+        }
+
+        int bucketMin = getBucketMin(baseMin, level);
+        int lastId = (int) (nowMin / bucketMin);
+        int firstId = lastId - (windowMin + bucketMin - 1) / bucketMin + 1;
+        long startMin = (long) firstId * bucketMin;
+        long spanMin = (long) (lastId + 1) * bucketMin - startMin;
+
+        for (int id = Math.max(firstId, 0); id <= lastId; id++) {
+            int slot = id % LEVEL_SIZE;
+            if (ids[level][slot] != id) {
+                continue;
+            }
+            int idx = (int) (((long) id * bucketMin - startMin) * count / spanMin);
+            int min = mins[level][slot];
+            int max = maxs[level][slot];
+            if (outMax[idx] == 0) {
+                outMin[idx] = min;
+                outMax[idx] = max;
+            } else {
+                outMin[idx] = Math.min(outMin[idx], min);
+                outMax[idx] = Math.max(outMax[idx], max);
+            }
+        }
+    }
+
+    private static int getBucketMin(int baseMin, int level) {
+        return baseMin << level;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // serialization
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(ids.length);
+        for (int level = 0; level < ids.length; level++) {
+            int count = 0;
+            for (int id : ids[level]) {
+                if (id != NO_BUCKET) {
+                    count++;
+                }
+            }
+            out.writeShort(count);
+            for (int slot = 0; slot < LEVEL_SIZE; slot++) {
+                if (ids[level][slot] != NO_BUCKET) {
+                    out.writeInt(ids[level][slot]);
+                    out.writeShort(mins[level][slot]);
+                    out.writeShort(maxs[level][slot]);
+                }
+            }
+        }
+    }
+
+    static GraphPyramid readFrom(DataInputStream in, int baseMin) throws IOException {
+        if (baseMin <= 0) {
+            throw new IOException("Invalid base period: " + baseMin);
+        }
+        GraphPyramid pyramid = new GraphPyramid(baseMin);
+        if (in.readUnsignedByte() != pyramid.ids.length) {
+            throw new IOException("Level count mismatch");
+        }
+        for (int level = 0; level < pyramid.ids.length; level++) {
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                short min = in.readShort();
+                short max = in.readShort();
+                if (id < 0) {
+                    throw new IOException("Invalid bucket: " + id);
+                }
+                int slot = id % LEVEL_SIZE;
+                pyramid.ids[level][slot] = id;
+                pyramid.mins[level][slot] = min;
+                pyramid.maxs[level][slot] = max;
+            }
+        }
+        return pyramid;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.widget;
+
+import static sk.trupici.gwatch.wear.GWatchApplication.LOG_TAG;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import sk.trupici.gwatch.wear.BuildConfig;
+import sk.trupici.gwatch.wear.common.data.Trend;
+
+/**
+ * Binary snapshot of the widget graph state surviving process death.
+ *
+ * Layout: magic (int), version (byte), refresh rate (byte), last graph update (long, minutes),
+ * last widget data, graph buckets, CRC32 of all previous bytes (int).
+ */
+class WidgetGraphSnapshot {
+
+    private static final String FILE_NAME = "widget_graph.dat";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x47574753; // GWGS
+    private static final byte VERSION = 2;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    final int refreshRate;
+    final long lastGraphUpdateMin;
+    final WidgetData widgetData;
+    final GraphPyramid graphData;
+
+    WidgetGraphSnapshot(int refreshRate, long lastGraphUpdateMin, WidgetData widgetData, GraphPyramid graphData) {
+        this.refreshRate = refreshRate;
+        this.lastGraphUpdateMin = lastGraphUpdateMin;
+        this.widgetData = widgetData;
+        this.graphData = graphData;
+    }
+
+    /**
+     * Writes the snapshot on a background thread, the file is replaced atomically.
+     * Passed data must not be modified afterwards.
+     */
+    void saveAsync(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        executor.execute(() -> {
+            try {
+                save(file);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "WidgetGraphSnapshot: failed to save", e);
+            }
+        });
+    }
+
+    private void save(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(refreshRate);
+        out.writeLong(lastGraphUpdateMin);
+        out.writeLong(widgetData.getTimestamp());
+        out.writeShort(widgetData.getGlucose());
+        out.writeShort(widgetData.getGlucoseDelta());
+        out.writeShort(widgetData.getSampleTimeDelta());
+        out.writeByte(widgetData.getTrend() == null ? -1 : widgetData.getTrend().ordinal());
+        out.writeUTF(widgetData.getSource() == null ? "" : widgetData.getSource());
+        graphData.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            bytes.writeTo(fos);
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "WidgetGraphSnapshot: saved " + bytes.size() + " bytes");
+        }
+    }
+
+    /**
+     * Reads the last saved snapshot, returns null if there is none or it is not valid
+     */
+    static WidgetGraphSnapshot load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "WidgetGraphSnapshot: failed to read", e);
+            return null;
+        }
+        if (data.length < 4) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        int storedCrc = ((data[data.length - 4] & 0xFF) << 24) | ((data[data.length - 3] & 0xFF) << 16)
+                | ((data[data.length - 2] & 0xFF) << 8) | (data[data.length - 1] & 0xFF);
+        if (storedCrc != (int) crc.getValue()) {
+            Log.w(LOG_TAG, "WidgetGraphSnapshot: checksum mismatch");
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                return null;
+            }
+            int refreshRate = in.readByte();
+            long lastGraphUpdateMin = in.readLong();
+
+            WidgetData widgetData = new WidgetData();
+            widgetData.setTimestamp(in.readLong());
+            widgetData.setGlucose(in.readShort());
+            widgetData.setGlucoseDelta(in.readShort());
+            widgetData.setSampleTimeDelta(in.readShort());
+            int trend = in.readByte();
+            widgetData.setTrend(trend < 0 ? null : Trend.valueOf(trend));
+            String source = in.readUTF();
+            widgetData.setSource(source.isEmpty() ? null : source);
+
+            GraphPyramid graphData = GraphPyramid.readFrom(in, refreshRate);
+            return new WidgetGraphSnapshot(refreshRate, lastGraphUpdateMin, widgetData, graphData);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "WidgetGraphSnapshot: invalid data", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 Juraj Antal
+ *
+ * Originally created in G-Watch App
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.widget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+
+import androidx.core.content.ContextCompat;
+import androidx.preference.PreferenceManager;
+
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.data.Trend;
+import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
+import sk.trupici.gwatch.wear.util.DexcomUtils;
+
+/**
+ * Immutable snapshot of widget rendering preferences.
+ * It is resolved once and rebuilt only after a widget related preference is changed.
+ */
+class WidgetRenderConfig {
+
+    /** former fixed graph of 48 x 5 min samples */
+    private static final int DEF_GRAPH_WINDOW_HOURS = 4;
+
+    private static WidgetRenderConfig instance;
+
+    private static final SharedPreferences.OnSharedPreferenceChangeListener prefsListener = (prefs, key) -> {
+        if (key == null || key.startsWith("pref_widget") || key.startsWith("cfg_glucose") || key.startsWith("cfg_status_panel")) {
+            invalidate();
+        }
+    };
+    private static boolean isListenerRegistered = false;
+
+    final int backgroundColor;
+    final int sourceColor;
+    final boolean isUnitConversion;
+    final boolean isHighRefreshRate;
+    final String sourcePackage;
+    final long updateWindowMs;
+    final int graphWindowMin;
+
+    private final int hypoThreshold;
+    private final int lowThreshold;
+    private final int highThreshold;
+    private final int hyperThreshold;
+
+    private final int textColorHypo;
+    private final int textColorLow;
+    private final int textColorInRange;
+    private final int textColorHigh;
+    private final int textColorHyper;
+
+    private final int missedThresholdMin;
+    private final int sampleTimeColorMissed;
+    private final int sampleTimeColorInRange;
+
+    private final int trendColorSteep;
+    private final int trendColorModerate;
+    private final int trendColorFlat;
+
+    /** graph color lookup table for values GRAPH_MIN_VALUE..GRAPH_MAX_VALUE */
+    final int[] graphColors = new int[WidgetUpdateService.GRAPH_MAX_VALUE - WidgetUpdateService.GRAPH_MIN_VALUE + 1];
+
+    static synchronized WidgetRenderConfig get(Context context) {
+        if (!isListenerRegistered) {
+            PreferenceManager.getDefaultSharedPreferences(context).registerOnSharedPreferenceChangeListener(prefsListener);
+            isListenerRegistered = true;
+        }
+        if (instance == null) {
+            instance = new WidgetRenderConfig(context);
+        }
+        return instance;
+    }
+
+    static synchronized void invalidate() {
+        instance = null;
+    }
+
+    private WidgetRenderConfig(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        backgroundColor = prefs.getInt("pref_widget_background_color", ContextCompat.getColor(context, R.color.def_widget_graph_bkg));
+        sourceColor = prefs.getInt("pref_widget_text_color_source", ContextCompat.getColor(context, R.color.def_widget_text));
+        isUnitConversion = prefs.getBoolean("cfg_glucose_units_conversion", false);
+        isHighRefreshRate = prefs.getBoolean("pref_widget_graph_1min_update", false);
+        sourcePackage = getSourceAppPackageToLaunch(prefs);
+        updateWindowMs = PreferenceUtils.getStringValueAsInt(prefs, "pref_widget_update_window", 5) * 1000L;
+        int windowHours = PreferenceUtils.getStringValueAsInt(prefs, "pref_widget_graph_window", DEF_GRAPH_WINDOW_HOURS);
+        graphWindowMin = Math.max(1, Math.min(windowHours * 60, GraphPyramid.MAX_WINDOW_MIN));
+
+        hypoThreshold = PreferenceUtils.getStringValueAsInt(prefs, "cfg_glucose_level_hypo", 70);
+        lowThreshold = PreferenceUtils.getStringValueAsInt(prefs, "cfg_glucose_level_low", 80);
+        highThreshold = PreferenceUtils.getStringValueAsInt(prefs, "cfg_glucose_level_high", 170);
+        hyperThreshold = PreferenceUtils.getStringValueAsInt(prefs, "cfg_glucose_level_hyper", 270);
+
+        textColorHypo = prefs.getInt("pref_widget_text_color_hypo", ContextCompat.getColor(context, R.color.def_bg_hypo_color));
+        textColorLow = prefs.getInt("pref_widget_text_color_low", ContextCompat.getColor(context, R.color.def_bg_low_color));
+        textColorInRange = prefs.getInt("pref_widget_text_color_in_range", ContextCompat.getColor(context, R.color.def_widget_text));
+        textColorHigh = prefs.getInt("pref_widget_text_color_high", ContextCompat.getColor(context, R.color.def_bg_high_color));
+        textColorHyper = prefs.getInt("pref_widget_text_color_hyper", ContextCompat.getColor(context, R.color.def_bg_hyper_color));
+
+        missedThresholdMin = Math.round(PreferenceUtils.getStringValueAsInt(prefs, "cfg_status_panel_no_data_time", 360)/60f);
+        sampleTimeColorMissed = prefs.getInt("pref_widget_sample_time_color_missed", ContextCompat.getColor(context, R.color.def_widget_sample_expired));
+        sampleTimeColorInRange = prefs.getInt("pref_widget_sample_time_color_in_range", ContextCompat.getColor(context, R.color.def_widget_sample_time));
+
+        trendColorSteep = prefs.getInt("pref_widget_trend_color_steep", ContextCompat.getColor(context, R.color.def_red));
+        trendColorModerate = prefs.getInt("pref_widget_trend_color_moderate", ContextCompat.getColor(context, R.color.def_orange));
+        trendColorFlat = prefs.getInt("pref_widget_trend_color_flat", ContextCompat.getColor(context, R.color.def_green));
+
+        int graphColorHypo = prefs.getInt("pref_widget_graph_color_hypo", ContextCompat.getColor(context, R.color.def_bg_hypo_color));
+        int graphColorLow = prefs.getInt("pref_widget_graph_color_low", ContextCompat.getColor(context, R.color.def_bg_low_color));
+        int graphColorInRange = prefs.getInt("pref_widget_graph_color_in_range", ContextCompat.getColor(context, R.color.def_bg_in_range_color));
+        int graphColorHigh = prefs.getInt("pref_widget_graph_color_high", ContextCompat.getColor(context, R.color.def_bg_high_color));
+        int graphColorHyper = prefs.getInt("pref_widget_graph_color_hyper", ContextCompat.getColor(context, R.color.def_bg_hyper_color));
+        for (int i = 0; i < graphColors.length; i++) {
+            graphColors[i] = getColorByRange(i + WidgetUpdateService.GRAPH_MIN_VALUE,
+                    graphColorHypo, graphColorLow, graphColorInRange, graphColorHigh, graphColorHyper);
+        }
+    }
+
+    int getGraphColor(int value) {
+        int idx = Math.max(0, Math.min(value - WidgetUpdateService.GRAPH_MIN_VALUE, graphColors.length - 1));
+        return graphColors[idx];
+    }
+
+    int getTextColor(int glucose) {
+        return getColorByRange(glucose, textColorHypo, textColorLow, textColorInRange, textColorHigh, textColorHyper);
+    }
+
+    int getTimeDeltaColor(int delta) {
+        return delta > missedThresholdMin ? sampleTimeColorMissed : sampleTimeColorInRange;
+    }
+
+    int getTrendColor(Trend trend) {
+        switch (trend) {
+            case UP_FAST:
+            case UP:
+            case DOWN:
+            case DOWN_FAST:
+                return trendColorSteep;
+            case UP_SLOW:
+            case DOWN_SLOW:
+                return trendColorModerate;
+            case FLAT:
+                return trendColorFlat;
+            default:
+                return Color.TRANSPARENT;
+        }
+    }
+
+    private int getColorByRange(int glucose, int hypo, int low, int inRange, int high, int hyper) {
+        if (glucose <= hypoThreshold) {
+            return hypo;
+        } else if (glucose <= lowThreshold) {
+            return low;
+        } else if (glucose < highThreshold) {
+            return inRange;
+        } else if (glucose < hyperThreshold) {
+            return high;
+        } else {
+            return hyper;
+        }
+    }
+
+    private static String getSourceAppPackageToLaunch(SharedPreferences prefs) {
+        if (prefs.getBoolean("pref_widget_launch_glimp", false)) {
+            return "it.ct.glicemia";
+        } else if (prefs.getBoolean("pref_widget_launch_xdrip", false)) {
+            return "com.eveningoutpost.dexdrip";
+        } else if (prefs.getBoolean("pref_widget_launch_aaps", false)) {
+            return "info.nightscout.androidaps";
+        } else if (prefs.getBoolean("pref_widget_launch_diabox", false)) {
+            return "com.outshineiot.diabox";
+        } else if (prefs.getBoolean("pref_widget_launch_juggluco", false)) {
+            return "tk.glucodata";
+        } else if (prefs.getBoolean("pref_widget_launch_dexcom", false)) {
+            return DexcomUtils.getInstalledDexcomAppPackage();
+        } else if (prefs.getBoolean("pref_widget_launch_dexcom_follow", false)) {
+            return DexcomUtils.getInstalledDexcomFollowAppPackage();
+        }
+        return null;
+    }
+}
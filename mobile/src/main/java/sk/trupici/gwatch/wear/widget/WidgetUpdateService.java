@@ -28,17 +28,17 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
+import android.os.Parcel;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.widget.RemoteViews;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
-import androidx.core.content.ContextCompat;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.GWatchApplication;
 import sk.trupici.gwatch.wear.R;
@@ -49,10 +49,10 @@ import sk.trupici.gwatch.wear.common.data.GlucosePacketBase;
 import sk.trupici.gwatch.wear.common.data.Packet;
 import sk.trupici.gwatch.wear.common.data.Trend;
 import sk.trupici.gwatch.wear.common.util.BgUtils;
-import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
+import sk.trupici.gwatch.wear.data.GlucoseStore;
 import sk.trupici.gwatch.wear.util.AndroidUtils;
-import sk.trupici.gwatch.wear.util.DexcomUtils;
+import sk.trupici.gwatch.wear.util.GraphRenderer;
 import sk.trupici.gwatch.wear.view.MainActivity;
 
 public class WidgetUpdateService extends JobService {
@@ -61,9 +61,8 @@ public class WidgetUpdateService extends JobService {
 
     public static final int WIDGET_JOB_ID = 8182;
 
-    private static final int GRAPH_MIN_VALUE = 40;
-    private static final int GRAPH_MAX_VALUE = 400;
-    private static final float GRAPH_VALUE_INT = (GRAPH_MAX_VALUE-GRAPH_MIN_VALUE + 1);
+    static final int GRAPH_MIN_VALUE = 40;
+    static final int GRAPH_MAX_VALUE = 400;
 
     private static final int MIN_GRAPH_WIDTH_DP = 110; // see widget_layout.xml
     private static final int MIN_GRAPH_HEIGHT_DP = 40; // see widget_layout.xml
@@ -75,18 +74,41 @@ public class WidgetUpdateService extends JobService {
 
     private static final int MINUTE_IN_MS = (1000 * 60);
 
+    private static final int DEF_REFRESH_RATE_MIN = 5;
+    private static final int HIGH_REFRESH_RATE_MIN = 1;
+
     private static final float DOT_RADIUS = 2.0f;
     private static final float DEF_DOT_PADDING = 1.5f;
 
-    private static final int GRAPH_DATA_LEN = 48;
-    private static int[] graphData = new int[GRAPH_DATA_LEN];
+    private static GraphPyramid graphData = new GraphPyramid(DEF_REFRESH_RATE_MIN);
     private static long lastGraphUpdateMin = 0;
+    /** incremented on every graph data change */
+    private static int graphVersion = 1;
 
-    private static final int DEF_REFRESH_RATE_MIN = 5;
-    private static final int HIGH_REFRESH_RATE_MIN = 1;
     private static int lastRefreshRate = DEF_REFRESH_RATE_MIN;
 
     private static WidgetData lastWidgetData = new WidgetData();
+    private static boolean isStateRestored = false;
+
+    /** update gate - latest data waiting for a deferred render job, null if no job is deferred */
+    private static PersistableBundle pendingBundle;
+    /** time of the last render job scheduling (elapsed realtime) */
+    private static long lastRenderScheduled = 0;
+
+    /** reusable graph bitmaps by widget size */
+    private static final Map<Long, Bitmap> graphBitmaps = new HashMap<>();
+    private static final GraphRenderer graphRenderer = new GraphRenderer(GRAPH_MIN_VALUE, GRAPH_MAX_VALUE);
+    /** min/max values of graph dots, reused between renders */
+    private static int[] dotMinValues = new int[0];
+    private static int[] dotMaxValues = new int[0];
+
+    /** graph version last pushed to each widget, valid only for {@link #renderedConfig} */
+    private static final Map<Integer, Integer> renderedGraphVersions = new HashMap<>();
+    private static WidgetRenderConfig renderedConfig;
+
+    /** debug statistics of data sent to the widget host */
+    private static long transferredBytes = 0;
+    private static long transferStatsStart = 0;
 
     @Override
     public boolean onStartJob(JobParameters params) {
@@ -102,13 +124,24 @@ public class WidgetUpdateService extends JobService {
             return false;
         }
 
-        WidgetData widgetData = WidgetData.fromBundle(params.getExtras());
-        String action = params.getExtras().getString("action");
+        long startTime = System.currentTimeMillis();
+        boolean isColdStart = restoreState(context);
+
+        PersistableBundle extras = takePendingBundle();
+        if (extras == null) {
+            extras = params.getExtras();
+        }
+        WidgetData widgetData = WidgetData.fromBundle(extras);
+        String action = extras.getString("action");
 
         updateWidget(appWidgetManager, appWidgetIds, widgetData, action);
 
+        if (BuildConfig.DEBUG && isColdStart) {
+            Log.d(GWatchApplication.LOG_TAG, "Cold widget render: " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+
         jobFinished(params, false);
-        if (action != null) {
+        if (action != null && !hasPendingBundle()) {
             scheduleTimeUpdate(context, widgetData);
         }
         return true;
@@ -132,10 +165,27 @@ public class WidgetUpdateService extends JobService {
             updateGraphData(widgetData, false);
         }
 
-        String sourcePackage = getSourceAppPackageToLaunch(context);
+        WidgetRenderConfig config = WidgetRenderConfig.get(context);
+        if (config != renderedConfig) {
+            renderedGraphVersions.clear();
+            renderedConfig = config;
+        }
+        String sourcePackage = config.sourcePackage;
 
         for (int appWidgetId : appWidgetIds) {
 
+            if ("time".equals(action) && widgetData.getGlucose() != 0) {
+                Integer renderedVersion = renderedGraphVersions.get(appWidgetId);
+                if (renderedVersion != null && renderedVersion == graphVersion) {
+                    // only time delta changed, graph and values are already displayed
+                    RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
+                    updateTimeDeltaViews(config, views, widgetData);
+                    countTransferredBytes(views);
+                    appWidgetManager.partiallyUpdateAppWidget(appWidgetId, views);
+                    continue;
+                }
+            }
+
             // get the layout for the App Widget and attach an on-click listener
             RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
 
@@ -146,7 +196,30 @@ public class WidgetUpdateService extends JobService {
             views.setOnClickPendingIntent(R.id.widget_main, createLaunchPendingIntent(context, sourcePackage));
 
             // tell the AppWidgetManager to perform an update on the current app widget
+            countTransferredBytes(views);
             appWidgetManager.updateAppWidget(appWidgetId, views);
+            renderedGraphVersions.put(appWidgetId, graphVersion);
+        }
+    }
+
+    private static void countTransferredBytes(RemoteViews views) {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            views.writeToParcel(parcel, 0);
+            transferredBytes += parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+        long now = System.currentTimeMillis();
+        if (transferStatsStart == 0) {
+            transferStatsStart = now;
+        } else if (now - transferStatsStart >= 60 * MINUTE_IN_MS) {
+            Log.d(GWatchApplication.LOG_TAG, "Widget data sent in last hour: " + transferredBytes + " bytes");
+            transferredBytes = 0;
+            transferStatsStart = now;
         }
     }
 
@@ -164,7 +237,10 @@ public class WidgetUpdateService extends JobService {
     private static boolean updateRefreshRate(Context context) {
         int refreshRate = getConfiguredRefreshRate(context);
         if (refreshRate != lastRefreshRate) {
-            Arrays.fill(graphData, 0);
+            // rebuild from history with the new base resolution
+            graphData = new GraphPyramid(refreshRate);
+            lastGraphUpdateMin = 0;
+            graphVersion++;
             lastRefreshRate = refreshRate;
             return true;
         }
@@ -197,23 +273,19 @@ public class WidgetUpdateService extends JobService {
             widgetData = new WidgetData();
         }
 
-        int color = PreferenceUtils.getIntValue(context, "pref_widget_background_color", ContextCompat.getColor(context, R.color.def_widget_graph_bkg));
-        views.setInt(R.id.widget_background, "setBackgroundColor", color);
+        WidgetRenderConfig config = WidgetRenderConfig.get(context);
+        views.setInt(R.id.widget_background, "setBackgroundColor", config.backgroundColor);
 
-        int timeDelta = widgetData.getTimeDelta();
-        String timeDeltaStr = timeDelta > 60 ? String.format("%d hr %d min", timeDelta/60, timeDelta%60) : String.format("%d min", timeDelta);
-        views.setTextViewText(R.id.widget_time_delta, timeDeltaStr);
-        views.setTextColor(R.id.widget_time_delta, getTimeDeltaColor(context, widgetData.getTimeDelta()));
+        updateTimeDeltaViews(config, views, widgetData);
 
         views.setTextViewText(R.id.widget_source, widgetData.getSource());
-        color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_source", ContextCompat.getColor(context, R.color.def_widget_text));
-        views.setTextColor(R.id.widget_source, color);
+        views.setTextColor(R.id.widget_source, config.sourceColor);
 
         if (widgetData.getGlucose() != 0) {
 
-            int colorByGlucose = getColorByGlucose(context, widgetData.getGlucose());
+            int colorByGlucose = config.getTextColor(widgetData.getGlucose());
 
-            boolean isUnitConv = PreferenceUtils.isConfigured(context, "cfg_glucose_units_conversion", false);
+            boolean isUnitConv = config.isUnitConversion;
             views.setTextViewText(R.id.widget_glucose, getValueStrInUnits(widgetData.getGlucose(), isUnitConv));
             views.setTextColor(R.id.widget_glucose, colorByGlucose);
 
@@ -235,15 +307,19 @@ public class WidgetUpdateService extends JobService {
             }
             char arrow = BgUtils.getTrendChar(trend);
             views.setTextViewText(R.id.widget_trend, ""+arrow);
-            views.setTextColor(R.id.widget_trend, getTrendColorId(context, trend));
+            views.setTextColor(R.id.widget_trend, getTrendColorId(config, trend));
 
-            views.setImageViewBitmap(R.id.widget_background, drawChart(context, appWidgetManager, widgetId));
-        }
-        if (BuildConfig.DEBUG) {
-            Log.v(GWatchApplication.LOG_TAG, Arrays.toString(graphData));
+            views.setImageViewBitmap(R.id.widget_background, drawChart(context, config, appWidgetManager, widgetId));
         }
     }
 
+    private static void updateTimeDeltaViews(WidgetRenderConfig config, RemoteViews views, WidgetData widgetData) {
+        int timeDelta = widgetData.getTimeDelta();
+        String timeDeltaStr = timeDelta > 60 ? String.format("%d hr %d min", timeDelta/60, timeDelta%60) : String.format("%d min", timeDelta);
+        views.setTextViewText(R.id.widget_time_delta, timeDeltaStr);
+        views.setTextColor(R.id.widget_time_delta, config.getTimeDeltaColor(timeDelta));
+    }
+
     private static String getValueStrInUnits(int value, boolean isUnitConv) {
         return isUnitConv ? BgUtils.convertGlucoseToMmolLStr(value) : String.valueOf(value);
     }
@@ -259,53 +335,14 @@ public class WidgetUpdateService extends JobService {
         return builder.toString();
     }
 
-    private static int getColorByGlucose(Context context, int glucose) {
-        int color;
-        if (glucose <= PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hypo", 70)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_hypo", ContextCompat.getColor(context, R.color.def_bg_hypo_color));
-        } else if (glucose <= PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_low", 80)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_low", ContextCompat.getColor(context, R.color.def_bg_low_color));
-        } else if (glucose < PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_high", 170)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_in_range", ContextCompat.getColor(context, R.color.def_widget_text));
-        } else if (glucose < PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hyper", 270)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_high", ContextCompat.getColor(context, R.color.def_bg_high_color));
-        } else {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_text_color_hyper", ContextCompat.getColor(context, R.color.def_bg_hyper_color));
-        }
-        return color;
-    }
-
-    private static int getTimeDeltaColor(Context context, int delta) {
-        int color;
-        int missedThreshold = Math.round(PreferenceUtils.getStringValueAsInt(context, "cfg_status_panel_no_data_time", 360)/60f);
-        if (delta > missedThreshold) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_sample_time_color_missed", ContextCompat.getColor(context, R.color.def_widget_sample_expired));
-        } else {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_sample_time_color_in_range", ContextCompat.getColor(context, R.color.def_widget_sample_time));
+    private static int getTrendColorId(WidgetRenderConfig config, Trend trend) {
+        int color = config.getTrendColor(trend);
+        if (BuildConfig.DEBUG && color == Color.TRANSPARENT) {
+            Log.w(LOG_TAG, "getTrendColorId: returning NO COLOR");
         }
         return color;
     }
 
-    private static int getTrendColorId(Context context, Trend trend) {
-        switch (trend) {
-            case UP_FAST:
-            case UP:
-            case DOWN:
-            case DOWN_FAST:
-                return PreferenceUtils.getIntValue(context, "pref_widget_trend_color_steep", ContextCompat.getColor(context, R.color.def_red));
-            case UP_SLOW:
-            case DOWN_SLOW:
-                return PreferenceUtils.getIntValue(context, "pref_widget_trend_color_moderate", ContextCompat.getColor(context, R.color.def_orange));
-            case FLAT:
-                return PreferenceUtils.getIntValue(context, "pref_widget_trend_color_flat", ContextCompat.getColor(context, R.color.def_green));
-            default:
-                if (BuildConfig.DEBUG) {
-                    Log.w(LOG_TAG, "getTrendColorId: returning NO COLOR");
-                }
-                return Color.TRANSPARENT;
-        }
-    }
-
     ///////////////////////////////////////////////////////////////////////////
     // onclick handler and widget fonts
 
@@ -324,25 +361,6 @@ public class WidgetUpdateService extends JobService {
         return PendingIntent.getActivity(context, 0, intent, AndroidUtils.getMutableFlag(true));
     }
 
-    private String getSourceAppPackageToLaunch(Context context) {
-        if (PreferenceUtils.isConfigured(context, "pref_widget_launch_glimp", false)) {
-            return "it.ct.glicemia";
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_xdrip", false)) {
-            return "com.eveningoutpost.dexdrip";
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_aaps", false)) {
-            return "info.nightscout.androidaps";
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_diabox", false)) {
-            return "com.outshineiot.diabox";
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_juggluco", false)) {
-            return "tk.glucodata";
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_dexcom", false)) {
-            return DexcomUtils.getInstalledDexcomAppPackage();
-        } else if (PreferenceUtils.isConfigured(context, "pref_widget_launch_dexcom_follow", false)) {
-            return DexcomUtils.getInstalledDexcomFollowAppPackage();
-        }
-        return null;
-    }
-
     ///////////////////////////////////////////////////////////////////////////
     // Graph implementation
 
@@ -357,43 +375,75 @@ public class WidgetUpdateService extends JobService {
             return;
         }
 
-        int refreshRateMin = getConfiguredRefreshRate(GWatchApplication.getAppContext());
+        int refreshRateMin = graphData.getBaseMin();
 
         if (lastGraphUpdateMin != 0) {
-            // shift data left
-            int roll = (int) ((now - lastGraphUpdateMin) / refreshRateMin);
-            if (roll > 0) {
+            // graph moves left with each base period
+            if (now / refreshRateMin != lastGraphUpdateMin / refreshRateMin) {
                 lastGraphUpdateMin = now;
-                if (roll >= GRAPH_DATA_LEN) {
-                    Arrays.fill(graphData, 0);
-                } else {
-                    graphData = Arrays.copyOfRange(graphData, roll, roll + GRAPH_DATA_LEN);
-                }
+                graphVersion++;
             }
         } else {
             lastGraphUpdateMin = now;
+            restoreGraphData(now);
+            graphVersion++;
         }
 
         // set new data
         if (isNewData) {
-            long tsData = widgetData.getTimestamp() / MINUTE_IN_MS;
-            int diff = (int) Math.round((now - tsData)/(double)refreshRateMin);
-            if (0 <= diff && diff < GRAPH_DATA_LEN) {
-                int newValue = widgetData.getGlucose();
-                int idx = GRAPH_DATA_LEN - 1 - diff;
-                int oldValue = graphData[idx];
-                graphData[idx] = oldValue == 0 ? newValue : (oldValue + newValue)/2; // kind of average
-            }
-//            lastGraphUpdateMin = now;
+            graphData.add(widgetData.getTimestamp() / MINUTE_IN_MS, widgetData.getGlucose());
+            graphVersion++;
         }
     }
 
+    /**
+     * Fills graph buckets from stored glucose history (e.g. after process restart)
+     */
+    private static void restoreGraphData(long nowMin) {
+        long from = (nowMin - GraphPyramid.MAX_WINDOW_MIN) * MINUTE_IN_MS;
+        GraphPyramid pyramid = graphData;
+        GlucoseStore.getInstance(GWatchApplication.getAppContext()).query(from, nowMin * MINUTE_IN_MS + MINUTE_IN_MS,
+                (timestamp, glucose, trend) -> pyramid.add(timestamp / MINUTE_IN_MS, glucose));
+    }
+
+    /**
+     * Restores graph state saved by the previous process instance, if not restored yet.
+     * Returns true if restore was attempted.
+     */
+    private static synchronized boolean restoreState(Context context) {
+        if (isStateRestored) {
+            return false;
+        }
+        isStateRestored = true;
+        WidgetGraphSnapshot snapshot = WidgetGraphSnapshot.load(context);
+        if (snapshot == null) {
+            return true;
+        }
+        if (lastGraphUpdateMin == 0 && snapshot.refreshRate == getConfiguredRefreshRate(context)) {
+            graphData = snapshot.graphData;
+            lastGraphUpdateMin = snapshot.lastGraphUpdateMin;
+            lastRefreshRate = snapshot.refreshRate;
+            graphVersion++;
+        }
+        if (lastWidgetData.getTimestamp() == 0) {
+            lastWidgetData = snapshot.widgetData;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(GWatchApplication.LOG_TAG, "Widget state restored: " + lastWidgetData);
+        }
+        return true;
+    }
+
+    private static void saveState(Context context) {
+        new WidgetGraphSnapshot(lastRefreshRate, lastGraphUpdateMin, new WidgetData(lastWidgetData), new GraphPyramid(graphData))
+                .saveAsync(context);
+    }
+
     private static int getConfiguredRefreshRate(Context context) {
-        boolean isHighRefreshRate = PreferenceUtils.isConfigured(context, "pref_widget_graph_1min_update", false);
-        return isHighRefreshRate ? HIGH_REFRESH_RATE_MIN : DEF_REFRESH_RATE_MIN;
+        return WidgetRenderConfig.get(context).isHighRefreshRate ? HIGH_REFRESH_RATE_MIN : DEF_REFRESH_RATE_MIN;
     }
 
-    private static Bitmap drawChart(Context context, AppWidgetManager appWidgetManager, int widgetId) {
+    private static Bitmap drawChart(Context context, WidgetRenderConfig config, AppWidgetManager appWidgetManager, int widgetId) {
         int widgetWidth = appWidgetManager.getAppWidgetOptions(widgetId).getInt(AppWidgetManager.OPTION_APPWIDGET_MAX_WIDTH);
         int widgetHeight = appWidgetManager.getAppWidgetOptions(widgetId).getInt(AppWidgetManager.OPTION_APPWIDGET_MAX_HEIGHT);
         if (BuildConfig.DEBUG) {
@@ -408,23 +458,20 @@ public class WidgetUpdateService extends JobService {
         int width = widgetWidth != 0 ? widgetWidth : dpToPx(context, MIN_GRAPH_WIDTH_DP);
         int height = widgetHeight != 0 ? widgetHeight : dpToPx(context, MIN_GRAPH_HEIGHT_DP);
 
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        Paint paint = new Paint();
-        paint.setStyle(Paint.Style.FILL);
-        paint.setAntiAlias(true);
+        Bitmap bitmap = getGraphBitmap(width, height);
 
         width -= widgetLeftPadding + widgetRightPadding;
         height -= widgetTopPadding + widgetBottomPadding;
         if (BuildConfig.DEBUG) {
             Log.d(GWatchApplication.LOG_TAG, "Paint size: " + width + " x " + height);
         }
-        float heightScale = height / GRAPH_VALUE_INT;
 
+        // one dot per base period at most, longer windows are aggregated to fit the width
+        int maxCount = config.graphWindowMin / graphData.getBaseMin();
         float padding = DEF_DOT_PADDING;
         int count = (int)(width / (2*DOT_RADIUS + padding));
-        if (count > GRAPH_DATA_LEN) {
-            count = GRAPH_DATA_LEN;
+        if (count > maxCount) {
+            count = maxCount;
             padding = (width - count * 2*DOT_RADIUS) / (float)count;
         }
         float graph_padding = (width - count * (2*DOT_RADIUS + padding))/2.0f;
@@ -433,28 +480,24 @@ public class WidgetUpdateService extends JobService {
             Log.d(GWatchApplication.LOG_TAG, "count: " + count + ", r: " + DOT_RADIUS + ", pad: " + padding);
         }
 
-        int offset = GRAPH_DATA_LEN - count;
-        for (int i = offset; i < GRAPH_DATA_LEN; i++) {
-            int value = graphData[i];
-            if (value == 0) {
+        if (dotMinValues.length < count) {
+            dotMinValues = new int[count];
+            dotMaxValues = new int[count];
+        }
+        graphData.fill(System.currentTimeMillis() / MINUTE_IN_MS, config.graphWindowMin, count, dotMinValues, dotMaxValues);
+
+        graphRenderer.begin(bitmap, widgetTopPadding, height + widgetTopPadding, config.graphColors);
+        for (int i = 0; i < count; i++) {
+            if (dotMaxValues[i] == 0) {
                 continue;
-            } else if (value < GRAPH_MIN_VALUE) {
-                value = GRAPH_MIN_VALUE;
             }
-            if (value > GRAPH_MAX_VALUE) {
-                value = GRAPH_MAX_VALUE;
+            float x = widgetLeftPadding + graph_padding  + padding/2 + DOT_RADIUS + (2*DOT_RADIUS + padding) * i;
+            graphRenderer.drawDot(x, dotMinValues[i], DOT_RADIUS);
+            if (dotMaxValues[i] != dotMinValues[i]) {
+                graphRenderer.drawDot(x, dotMaxValues[i], DOT_RADIUS);
             }
-            paint.setColor(getGraphPaintColor(context, value));
-
-            value = value - GRAPH_MIN_VALUE;
-            float x = widgetLeftPadding + graph_padding  + padding/2 + DOT_RADIUS + (2*DOT_RADIUS + padding) * (i - offset);
-            float y = height + widgetTopPadding - (value * heightScale);
-
-            if (BuildConfig.DEBUG) {
-                Log.d(GWatchApplication.LOG_TAG, "draw: i = " + i + " [" + x + ", " + y + "]");
-            }
-            canvas.drawCircle(x, y, DOT_RADIUS, paint);
         }
+        graphRenderer.end();
         return bitmap;
     }
 
@@ -463,20 +506,18 @@ public class WidgetUpdateService extends JobService {
         return (int) (dp * (metrics.densityDpi/160f));
     }
 
-    private static int getGraphPaintColor(Context context, int value) {
-        int color;
-        if (value <= PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hypo", 70)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_graph_color_hypo", ContextCompat.getColor(context, R.color.def_bg_hypo_color));
-        } else if (value <= PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_low", 80)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_graph_color_low", ContextCompat.getColor(context, R.color.def_bg_low_color));
-        } else if (value < PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_high", 170)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_graph_color_in_range", ContextCompat.getColor(context, R.color.def_bg_in_range_color));
-        } else if (value < PreferenceUtils.getStringValueAsInt(context, "cfg_glucose_level_hyper", 270)) {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_graph_color_high", ContextCompat.getColor(context, R.color.def_bg_high_color));
-        } else {
-            color = PreferenceUtils.getIntValue(context, "pref_widget_graph_color_hyper", ContextCompat.getColor(context, R.color.def_bg_hyper_color));
+    /**
+     * Returns graph bitmap of given size, bitmap is reused for widgets of the same size.
+     * Reuse is safe as the bitmap is copied to the widget host when {@code RemoteViews} are applied.
+     */
+    private static Bitmap getGraphBitmap(int width, int height) {
+        long key = ((long) width << 32) | height;
+        Bitmap bitmap = graphBitmaps.get(key);
+        if (bitmap == null || bitmap.isRecycled()) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            graphBitmaps.put(key, bitmap);
         }
-        return color;
+        return bitmap;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -486,6 +527,8 @@ public class WidgetUpdateService extends JobService {
 
     public static void updateWidget(Packet packet) {
         PersistableBundle bundle = null;
+        Context context = GWatchApplication.getAppContext();
+        restoreState(context);
 
         if (packet instanceof GlucosePacketBase) {
             GlucosePacketBase gp = (GlucosePacketBase) packet;
@@ -508,6 +551,7 @@ public class WidgetUpdateService extends JobService {
             if (lastWidgetData.getTimestamp() != 0 && lastWidgetData.getTimestamp() > widgetData.getTimestamp()) {
                 // in case of old value, do not update current status, just update graph data
                 updateGraphData(widgetData, true);
+                saveState(context);
                 return;
             }
             widgetData.setGlucoseDelta(lastWidgetData.getGlucose() == 0
@@ -525,6 +569,7 @@ public class WidgetUpdateService extends JobService {
             updateGraphData(widgetData, true);
 
             lastWidgetData = new WidgetData(widgetData);
+            saveState(context);
             bundle = widgetData.toPersistableBundle("glucose");
 
         } else if (packet instanceof ConfigPacket) {
@@ -535,15 +580,55 @@ public class WidgetUpdateService extends JobService {
         }
 
         if (bundle != null) {
-            Context context = GWatchApplication.getAppContext();
-            ComponentName componentName = new ComponentName(context, WidgetUpdateService.class);
-            JobInfo jobInfo = new JobInfo.Builder(WidgetUpdateService.WIDGET_JOB_ID, componentName)
-                    .setExtras(bundle)
-                    .setOverrideDeadline(1000) // max delay 1s
-                    .build();
-            JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
-            jobScheduler.cancel(WidgetUpdateService.WIDGET_JOB_ID);
-            jobScheduler.schedule(jobInfo);
+            scheduleRender(context, bundle);
+        }
+    }
+
+    /**
+     * Schedules widget render job. The first update after idle period is rendered immediately,
+     * subsequent updates within the configured window are coalesced to a single deferred render
+     * with the latest data.
+     */
+    private static synchronized void scheduleRender(Context context, PersistableBundle bundle) {
+        if (pendingBundle != null) {
+            // deferred job is already scheduled, just replace its data
+            if (!"glucose".equals(pendingBundle.getString("action"))) {
+                bundle.putString("action", pendingBundle.getString("action"));
+            }
+            pendingBundle = bundle;
+            if (BuildConfig.DEBUG) {
+                Log.d(GWatchApplication.LOG_TAG, "Widget update coalesced");
+            }
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long delay = lastRenderScheduled + WidgetRenderConfig.get(context).updateWindowMs - now;
+
+        JobInfo.Builder builder = new JobInfo.Builder(WidgetUpdateService.WIDGET_JOB_ID, new ComponentName(context, WidgetUpdateService.class))
+                .setExtras(bundle);
+        if (delay > 0) {
+            pendingBundle = bundle;
+            builder.setMinimumLatency(delay)
+                    .setOverrideDeadline(delay + 1000);
+        } else {
+            builder.setOverrideDeadline(1000); // max delay 1s
+            delay = 0;
         }
+        lastRenderScheduled = now + delay;
+
+        JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.cancel(WidgetUpdateService.WIDGET_JOB_ID);
+        jobScheduler.schedule(builder.build());
+    }
+
+    private static synchronized boolean hasPendingBundle() {
+        return pendingBundle != null;
+    }
+
+    private static synchronized PersistableBundle takePendingBundle() {
+        PersistableBundle bundle = pendingBundle;
+        pendingBundle = null;
+        return bundle;
     }
 }
@@ -15,7 +15,6 @@
  */
 package sk.trupici.gwatch.wear.components;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -33,15 +32,17 @@ import java.util.Date;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.common.util.BgUtils;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
 import sk.trupici.gwatch.wear.data.BgData;
+import sk.trupici.gwatch.wear.data.BgRepository;
 import sk.trupici.gwatch.wear.util.CommonConstants;
 import sk.trupici.gwatch.wear.workers.BgDataProcessor;
 
 import static android.content.Context.POWER_SERVICE;
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.MINUTE_IN_MILLIS;
 
-public class BgAlarmController extends BroadcastReceiver {
+public class BgAlarmController implements BgRepository.Observer {
 
     private static final String LOG_TAG = BgAlarmController.class.getSimpleName();
 
@@ -325,7 +326,7 @@ public class BgAlarmController extends BroadcastReceiver {
     }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onBgData(Context context, BgData bgData) {
         if (!alarms.enabled) {
             return;
         }
@@ -335,11 +336,7 @@ public class BgAlarmController extends BroadcastReceiver {
         wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
         try {
 
-            String action = intent.getAction();
-            Log.i(LOG_TAG, "alarms: " + action);
-
-            Bundle extras = intent.getExtras();
-            BgData bgData = BgData.fromBundle(extras);
+            Log.i(LOG_TAG, "alarms: " + bgData);
 
             if (bgData.getValue() == 0 || bgData.getTimestamp() <= 0) {
                 Log.w(LOG_TAG, "alarms: invalid bg data received, ignored...");
@@ -375,7 +372,7 @@ public class BgAlarmController extends BroadcastReceiver {
                 if (BuildConfig.DEBUG) {
                     Log.d(LOG_TAG, "alarms: glucose in range");
                 }
-                PreferenceUtils.setLongValue(context, PREF_LAST_TRIGGERED_AT, 0L);
+                resetTriggeredAt(context, PREF_LAST_TRIGGERED_AT);
                 return;
             }
 
@@ -384,7 +381,7 @@ public class BgAlarmController extends BroadcastReceiver {
                 Log.e(LOG_TAG, "alarms: trigger alarm at: " + new Date(now));
             }
             if (!isAlarmTime(now)) {
-                PreferenceUtils.setLongValue(context, PREF_LAST_TRIGGERED_AT, 0L);
+                resetTriggeredAt(context, PREF_LAST_TRIGGERED_AT);
                 return;
             }
 
@@ -443,7 +440,7 @@ public class BgAlarmController extends BroadcastReceiver {
 
             long now = System.currentTimeMillis();
             if (!isAlarmTime(now)) {
-                PreferenceUtils.setLongValue(context, PREF_NO_DATA_LAST_TRIGGERED_AT, 0L);
+                resetTriggeredAt(context, PREF_NO_DATA_LAST_TRIGGERED_AT);
                 return;
             }
 
@@ -463,6 +460,17 @@ public class BgAlarmController extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Clears the alarm trigger time, called for every sample so it is written in background
+     * and only if not cleared yet
+     */
+    private static void resetTriggeredAt(Context context, String prefName) {
+        ConfigStore store = ConfigStore.get(context);
+        if (store.getLong(prefName, 0L) != 0L) {
+            store.putLong(prefName, 0L);
+        }
+    }
+
     private void checkAndTriggerAlarm(Context context, AlarmConfig alarmConfig, int bgValue, long lastTriggeredAt, long lastSnoozedAt) {
         Log.d(LOG_TAG, "alarms: check and trigger alarm type: " + alarmConfig.type);
 
@@ -16,18 +16,24 @@
 
 package sk.trupici.gwatch.wear.components;
 
-import android.content.SharedPreferences;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 import android.util.Log;
 
 import java.util.Arrays;
-import java.util.stream.Collectors;
 
 import sk.trupici.gwatch.wear.BuildConfig;
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
+import sk.trupici.gwatch.wear.data.BgRingStore;
 import sk.trupici.gwatch.wear.util.UiUtils;
+import sk.trupici.gwatch.wear.workers.BgDataProcessor;
 
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.HOUR_IN_MINUTES;
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.MINUTE_IN_MILLIS;
@@ -35,6 +41,7 @@ import static sk.trupici.gwatch.wear.common.util.CommonConstants.MINUTE_IN_MILLI
 public class BgGraph {
     final private static String LOG_TAG = BgGraph.class.getSimpleName();
 
+    // former persistent graph data, imported to the ring store
     private static final String PREF_DATA = "graph_data";
     private static final String PREF_DATA_LAST_UPD_MIN = "graph_last_upd";
 
@@ -49,10 +56,32 @@ public class BgGraph {
 
     private static final int GRAPH_DYN_PADDING = 7;
 
-    public static final int GRAPH_DATA_LEN = 48;
+    public static final int MAX_WINDOW_HOURS = 24;
 
-    private int[] graphData = new int[GRAPH_DATA_LEN];
+    private static final int BAND_HYPO = 0;
+    private static final int BAND_LOW = 1;
+    private static final int BAND_IN_RANGE = 2;
+    private static final int BAND_HIGH = 3;
+    private static final int BAND_HYPER = 4;
+    private static final int BAND_COUNT = 5;
+
+    /** selected (downsampled) value and its time per graph bucket, the last one is the current bucket */
+    private int[] graphData = new int[0];
+    private int[] graphTimes = new int[0];
+    private int[] prevGraphData = new int[0];
+    private int[] prevGraphTimes = new int[0];
     private long lastGraphUpdateMin = 0;
+    /** graph bucket (time / bucket duration) of the last value in graph data */
+    private long graphTick = 0;
+    /** time of the newest sample in graph data */
+    private long lastSampleMin = 0;
+    /** store backfill counter at the last read, older samples must be read again when changed */
+    private long backfillCount = 0;
+    private BgRingStore store;
+
+    /** samples read from the store in native resolution */
+    private int[] sampleTimes = new int[0];
+    private int[] sampleValues = new int[0];
 
     private int minValue = 0;
     private int maxValue = 0;
@@ -61,11 +90,38 @@ public class BgGraph {
     private Paint paint;
     private Paint ambientPaint;
 
+    // chart drawing, reused for every redraw
+    private final Canvas canvas = new Canvas();
+    private final Paint chartPaint = new Paint();
+    private final float[][] bandPoints = new float[BAND_COUNT][];
+    private final float[][] bandLines = new float[BAND_COUNT][];
+    private final int[] pointCounts = new int[BAND_COUNT];
+    private final int[] lineCounts = new int[BAND_COUNT];
+
+    /** cached background and grid lines layer */
+    private Bitmap gridBitmap;
+    private Paint gridPaint;
+    private GraphRange gridRange;
+
+    /** values layer, double buffered for scrolling */
+    private Bitmap dataBitmap;
+    private Bitmap dataBackBitmap;
+    /** graph tick of the last full redraw, scrolling is rounded from it */
+    private long scrollBaseTick;
+
+    // chart geometry for the current bounds and params
+    private int chartCount;
+    private int bucketMin;
+    private float chartXOffset;
+    private float chartYOffset;
+    private float chartXStep;
+    private GraphRange chartRange;
+
     private BgGraphParams params;
 
     private RectF bounds;
 
-    public void create(SharedPreferences sharedPrefs, BgGraphParams params, RectF bounds) {
+    public void create(Context context, BgGraphParams params, RectF bounds) {
         this.params = params;
 
         this.bounds = bounds;
@@ -75,23 +131,32 @@ public class BgGraph {
 
         ambientPaint = UiUtils.createAmbientPaint();
 
-        lastGraphUpdateMin = restoreChartData(sharedPrefs, graphData);
-        if (lastGraphUpdateMin > 0) {
-            recalculateDynamicRange();
-        }
-        reconfigure(params);
+        // layer copy replaces the whole target content
+        gridPaint = new Paint();
+        gridPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+
+        store = getStore(context);
+        // chart is built by reconfigure() or resize(), once the params are filled
     }
 
     public void resize(RectF bounds) {
         this.bounds = bounds;
 
         bitmap = Bitmap.createBitmap((int) bounds.width(), (int) bounds.height(), Bitmap.Config.ARGB_8888);
+        gridRange = null;
+        if (updateLayout()) {
+            restoreChartData(System.currentTimeMillis() / MINUTE_IN_MILLIS);
+        }
         drawChart();
     }
 
     public void reconfigure(BgGraphParams params) {
         this.params = params;
+        gridRange = null;
 
+        // time window or chart type might be changed
+        updateLayout();
+        restoreChartData(System.currentTimeMillis() / MINUTE_IN_MILLIS);
         drawChart();
     }
 
@@ -107,178 +172,474 @@ public class BgGraph {
         }
     }
 
-    public void updateGraphData(Double bgValue, long timestamp, SharedPreferences sharedPrefs) {
-        // update or reload
-        // graph data might be already updated, e.g. by BgData Provider, reload
-        lastGraphUpdateMin = restoreChartData(sharedPrefs, graphData);
-        lastGraphUpdateMin = updateGraphData(bgValue, timestamp, sharedPrefs, graphData, lastGraphUpdateMin, params.refreshRateMin);
+    /**
+     * Adds new samples from the store and redraws the changed part of the chart.
+     * Only buckets from the one preceding the newest known sample are downsampled again,
+     * whole graph if older samples were backfilled.
+     */
+    public void updateGraphData(long timeMs) {
+        long currentMinute = timeMs / MINUTE_IN_MILLIS;
+        long prevTick = graphTick;
+        int roll = shiftChartData(currentMinute);
+        if (roll < 0) {
+            restoreChartData(currentMinute);
+            drawChart();
+            return;
+        }
 
-        // redraw chart
-        if (lastGraphUpdateMin > 0) {
-            recalculateDynamicRange();
+        boolean isBackfilled = store != null && store.getBackfillCount() != backfillCount;
+        int changedIdx = sampleChartData(isBackfilled ? 0 : getBucketIdx(lastSampleMin) - 1);
+        recalculateDynamicRange();
+        if (roll > 0 || changedIdx < chartCount) {
+            updateChart(roll, prevTick, changedIdx);
+        }
+    }
+
+    /**
+     * Advances in-memory graph data to the given time, called for every frame.
+     * Nothing is done within the same minute, data is shifted and the chart scrolled
+     * only when a new graph bucket starts, the store is not read at all.
+     */
+    public void advance(long timeMs) {
+        long currentMinute = timeMs / MINUTE_IN_MILLIS;
+        if (currentMinute == lastGraphUpdateMin) {
+            return;
+        }
+        long prevTick = graphTick;
+        int roll = shiftChartData(currentMinute);
+        if (roll == 0) {
+            return;
+        } else if (roll < 0) { // time set back or graph not ready
+            restoreChartData(currentMinute);
             drawChart();
+        } else {
+            recalculateDynamicRange();
+            updateChart(roll, prevTick, chartCount - roll);
         }
     }
 
+    /**
+     * Shifts graph data to the bucket of the given time
+     * @return number of buckets shifted, -1 if data must be restored from the store
+     */
+    private int shiftChartData(long currentMinute) {
+        lastGraphUpdateMin = currentMinute;
+        if (chartCount == 0) {
+            return -1;
+        }
+        long tick = currentMinute / bucketMin;
+        if (tick < graphTick || tick - graphTick >= chartCount) {
+            return -1;
+        }
+        int roll = (int) (tick - graphTick);
+        if (roll > 0) {
+            System.arraycopy(graphData, roll, graphData, 0, chartCount - roll);
+            System.arraycopy(graphTimes, roll, graphTimes, 0, chartCount - roll);
+            Arrays.fill(graphData, chartCount - roll, chartCount, 0);
+            graphTick = tick;
+        }
+        return roll;
+    }
+
+    private void restoreChartData(long nowMin) {
+        Arrays.fill(graphData, 0);
+        lastGraphUpdateMin = nowMin;
+        lastSampleMin = 0;
+        if (chartCount > 0) {
+            graphTick = nowMin / bucketMin;
+            sampleChartData(0);
+        }
+        recalculateDynamicRange();
+    }
+
+    /**
+     * Reads samples from the start of given bucket and downsamples them to graph data
+     * @return index of the first changed value, chart count if none is changed
+     */
+    private int sampleChartData(int fromIdx) {
+        fromIdx = Math.max(0, fromIdx);
+        if (store == null || fromIdx >= chartCount) {
+            return chartCount;
+        }
+        long firstBucket = graphTick - chartCount + 1;
+        backfillCount = store.getBackfillCount();
+        int size = store.read((firstBucket + fromIdx) * bucketMin, sampleTimes, sampleValues);
+        if (size > 0) {
+            lastSampleMin = sampleTimes[size - 1];
+        }
+
+        System.arraycopy(graphData, fromIdx, prevGraphData, fromIdx, chartCount - fromIdx);
+        System.arraycopy(graphTimes, fromIdx, prevGraphTimes, fromIdx, chartCount - fromIdx);
+        LttbDownsampler.downsample(sampleTimes, sampleValues, size, firstBucket, bucketMin, chartCount, fromIdx, graphTimes, graphData);
+
+        for (int i = fromIdx; i < chartCount; i++) {
+            if (prevGraphData[i] != graphData[i] || (graphData[i] != 0 && prevGraphTimes[i] != graphTimes[i])) {
+                return i;
+            }
+        }
+        return chartCount;
+    }
+
+    /**
+     * @return index of the bucket containing given time, -1 if older than the graph
+     */
+    private int getBucketIdx(long timeMin) {
+        return (int) Math.max(-1, Math.min(chartCount - 1, timeMin / bucketMin - (graphTick - chartCount + 1)));
+    }
+
     private void updateDynamicRange(int value) {
         if (value > 0) {
             minValue = minValue == 0 ? value : Math.min(minValue, value);
             maxValue = maxValue == 0 ? value : Math.max(maxValue, value);
-            Log.d(LOG_TAG, "graph: updateDynamicRange: min=" + minValue + ", max=" + maxValue);
         }
     }
 
     private void recalculateDynamicRange() {
         // calculate scale from visible values only
         minValue = maxValue = 0;
-        int visibleDataLen = getVisibleDataLen();
-        int offset = GRAPH_DATA_LEN - visibleDataLen;
-        for (int i = offset; i < GRAPH_DATA_LEN; i++) {
+        for (int i = 0; i < chartCount; i++) {
             updateDynamicRange(graphData[i]);
         }
-        Log.d(LOG_TAG, "graph: recalculateDynamicRange: min=" + minValue + ", max=" + maxValue);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "graph: recalculateDynamicRange: min=" + minValue + ", max=" + maxValue);
+        }
+    }
+
+    /**
+     * Calculates chart geometry for the current bounds and params.
+     * Time window is split to buckets of whole minutes, one per pixel for line graph
+     * or one per dot so the dots do not overlap.
+     * @return true if the number or duration of buckets is changed
+     */
+    private boolean updateLayout() {
+        int width = (int)bounds.width() - params.leftPadding - params.rightPadding;
+        int height = (int)bounds.height() - params.topPadding - params.bottomPadding;
+
+        float pointWidth = params.drawChartLine ? 1f : 2 * DOT_RADIUS;
+        int maxCount = Math.max(1, (int) (width / pointWidth));
+        int windowMin = getWindowHours() * HOUR_IN_MINUTES;
+        int newBucketMin = Math.max(1, (windowMin + maxCount - 1) / maxCount);
+        int count = (windowMin + newBucketMin - 1) / newBucketMin;
+
+        boolean isChanged = count != chartCount || newBucketMin != bucketMin;
+        if (isChanged) {
+            chartCount = count;
+            bucketMin = newBucketMin;
+            graphData = new int[count];
+            graphTimes = new int[count];
+            prevGraphData = new int[count];
+            prevGraphTimes = new int[count];
+            for (int band = 0; band < BAND_COUNT; band++) {
+                bandPoints[band] = new float[count * 2];
+                bandLines[band] = new float[count * 4];
+            }
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "graph: layout: " + count + " buckets of " + newBucketMin + " min");
+            }
+        }
+        // at most one sample per minute is stored
+        int sampleCapacity = count * newBucketMin + 1;
+        if (sampleTimes.length != sampleCapacity) {
+            sampleTimes = new int[sampleCapacity];
+            sampleValues = new int[sampleCapacity];
+        }
+
+        chartXStep = Math.max(1, width) / (float) count;
+        chartXOffset = params.leftPadding;
+        chartYOffset = params.topPadding + height;
+        return isChanged;
+    }
+
+    /**
+     * @return right edge of the chart area, values are not drawn over the right padding
+     */
+    private float getChartRight() {
+        return bounds.width() - params.rightPadding;
     }
 
-    private int getVisibleDataLen() {
-        return GRAPH_DATA_LEN; // TODO
+    private int getWindowHours() {
+        return Math.max(1, Math.min(params.windowHours, MAX_WINDOW_HOURS));
     }
 
+    /**
+     * @return horizontal position of the sample selected in given bucket
+     */
+    private float getX(int idx) {
+        return chartXOffset + chartXStep * (idx + (graphTimes[idx] % bucketMin + 0.5f) / bucketMin);
+    }
+
+    private GraphRange getGraphRange() {
+        int height = (int)bounds.height() - params.topPadding - params.bottomPadding;
+        return params.enableDynamicRange ? getDynamicRange()
+                : new GraphRange(GRAPH_MIN_VALUE, GRAPH_MAX_VALUE, height / GRAPH_VALUE_INT);
+    }
+
+    /**
+     * Redraws the whole chart
+     */
     private void drawChart() {
-        if (bitmap == null) {
+        if (bitmap == null || chartCount == 0) {
             return; // not ready yet
         }
 
-        if (BuildConfig.DEBUG) {
-            Log.d(LOG_TAG, "graph: Bitmap size: " + bitmap.getWidth() + " x " + bitmap.getHeight());
-            Log.d(LOG_TAG, "graph: Padding: " + params.leftPadding + ", " + params.topPadding + ", " + params.rightPadding + ", " + params.bottomPadding);
+        chartRange = getGraphRange();
+
+        // background and lines do not depend on values, redraw only if the range is changed
+        if (gridBitmap == null || gridRange == null || gridRange.min != chartRange.min || gridRange.max != chartRange.max) {
+            drawGrid(chartRange, chartXOffset, chartYOffset, chartXStep, chartCount);
         }
 
-        bitmap.eraseColor(params.backgroundColor);
-        paint.reset();
-        paint.setAntiAlias(true);
-        paint.setStyle(Paint.Style.FILL);
+        if (dataBitmap == null || dataBitmap.getWidth() != bitmap.getWidth() || dataBitmap.getHeight() != bitmap.getHeight()) {
+            dataBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+            dataBackBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+        dataBitmap.eraseColor(Color.TRANSPARENT);
+        canvas.setBitmap(dataBitmap);
+        canvas.save();
+        canvas.clipRect(chartXOffset, 0, getChartRight(), dataBitmap.getHeight());
+        drawValues(0);
+        canvas.restore();
+        canvas.setBitmap(null);
 
-        Canvas canvas = new Canvas(bitmap);
+        scrollBaseTick = graphTick;
+        composeChart();
+    }
 
-        int width = (int)bounds.width() - params.leftPadding - params.rightPadding;
-        int height = (int)bounds.height() - params.topPadding - params.bottomPadding;
-        if (BuildConfig.DEBUG) {
-            Log.d(LOG_TAG, "graph: Paint size: " + width + " x " + height);
+    /**
+     * Scrolls already drawn values left by given number of buckets (if any) and redraws
+     * values from the last value before the first changed one.
+     * Falls back to the full redraw if the value range is changed.
+     */
+    private void updateChart(int roll, long prevTick, int changedIdx) {
+        if (bitmap == null || dataBitmap == null || chartRange == null) {
+            drawChart();
+            return;
         }
 
-        float padding = DEF_DOT_PADDING; // FIXME horizontal scale
-        int count = (int)(width / (2*DOT_RADIUS + padding));
-        if (count > GRAPH_DATA_LEN) {
-            count = GRAPH_DATA_LEN;
-            padding = (width - count * 2*DOT_RADIUS) / (float)count;
+        // last unchanged value, its segment to the changed one must be redrawn
+        int clipIdx = changedIdx - 1;
+        while (clipIdx > 0 && graphData[clipIdx] == 0) {
+            clipIdx--;
         }
-        float graphPaddingX = (width - count * (2*DOT_RADIUS + padding))/2.0f;
+        GraphRange range = getGraphRange();
+        if (roll >= chartCount || clipIdx <= 0
+                || range.min != chartRange.min || range.max != chartRange.max) {
+            drawChart();
+            return;
+        }
+
+        canvas.setBitmap(dataBitmap);
+        if (roll > 0) {
+            // shift by whole pixels, rounded from the last full redraw so the error does not accumulate
+            int shiftPx = Math.round((graphTick - scrollBaseTick) * chartXStep) - Math.round((prevTick - scrollBaseTick) * chartXStep);
+            canvas.setBitmap(dataBackBitmap);
+            canvas.drawBitmap(dataBitmap, -shiftPx, 0, gridPaint);
+            Bitmap swap = dataBitmap;
+            dataBitmap = dataBackBitmap;
+            dataBackBitmap = swap;
+
+            // values scrolled out of the chart area must not stay in the left padding
+            canvas.save();
+            canvas.clipRect(0, 0, chartXOffset, dataBitmap.getHeight());
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            canvas.restore();
+        }
+
+        // clear area from the bucket of the last unchanged value and draw values from the one before
+        int fromIdx = clipIdx - 1;
+        while (fromIdx > 0 && graphData[fromIdx] == 0) {
+            fromIdx--;
+        }
+        float clipLeft = chartXOffset + chartXStep * clipIdx;
+        canvas.save();
+        canvas.clipRect(clipLeft, 0, dataBitmap.getWidth(), dataBitmap.getHeight());
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.clipRect(chartXOffset, 0, getChartRight(), dataBitmap.getHeight());
+        drawValues(fromIdx);
+        canvas.restore();
+        canvas.setBitmap(null);
+
+        composeChart();
+    }
+
+    /**
+     * Composes background layer and values to the displayed bitmap
+     */
+    private void composeChart() {
+        canvas.setBitmap(bitmap);
+        canvas.drawBitmap(gridBitmap, 0, 0, gridPaint);
+        canvas.drawBitmap(dataBitmap, 0, 0, null);
+        canvas.setBitmap(null);
+    }
 
+    /**
+     * Draws values starting from given data index to the current canvas
+     */
+    private void drawValues(int fromIdx) {
+        GraphRange graphRange = chartRange;
+        // samples farther apart are not connected
+        int maxGapMin = 2 * bucketMin + params.refreshRateMin;
+
+        // collect points and line segments by color band
+        Arrays.fill(pointCounts, 0);
+        Arrays.fill(lineCounts, 0);
         float x, y;
-        float xOffset = params.leftPadding + graphPaddingX + padding / 2 + DOT_RADIUS;
-        float yOffset = params.topPadding + height;
+        float prevX = 0, prevY = 0;
+        long prevTime = 0;
+        for (int i = fromIdx; i < chartCount; i++) {
+            int value = graphData[i];
+            if (value == 0) {
+                continue;
+            } else if (value < GRAPH_MIN_VALUE) {
+                value = GRAPH_MIN_VALUE;
+            }
+            if (value > GRAPH_MAX_VALUE) {
+                value = GRAPH_MAX_VALUE;
+            }
 
-        GraphRange graphRange = params.enableDynamicRange ? getDynamicRange()
-                : new GraphRange(GRAPH_MIN_VALUE, GRAPH_MAX_VALUE, height / GRAPH_VALUE_INT);
+            x = getX(i);
+            y = chartYOffset - ((value - graphRange.min) * graphRange.scale);
 
+            int band = getBand(value);
 
-        // draw lines
-        paint.setStrokeWidth(1f);
+            if (params.drawChartLine) { // line graph
+                float[] lines = bandLines[band];
+                int idx = lineCounts[band];
+                if (prevTime == 0 || graphTimes[i] - prevTime > maxGapMin) {
+                    lines[idx] = x - LINE_WIDTH / 2f;
+                    lines[idx + 1] = y;
+                    lines[idx + 2] = x + LINE_WIDTH / 2f;
+                } else {
+                    lines[idx] = prevX;
+                    lines[idx + 1] = prevY;
+                    lines[idx + 2] = x;
+                }
+                lines[idx + 3] = y;
+                lineCounts[band] = idx + 4;
+            }
+
+            if (params.drawChartDots) { // dot graph
+                float[] points = bandPoints[band];
+                points[pointCounts[band]++] = x;
+                points[pointCounts[band]++] = y;
+            }
+
+            prevX = x;
+            prevY = y;
+            prevTime = graphTimes[i];
+        }
+
+        // draw each color band at once
+        chartPaint.reset();
+        chartPaint.setAntiAlias(true);
+        chartPaint.setStyle(Paint.Style.STROKE);
+        for (int band = 0; band < BAND_COUNT; band++) {
+            chartPaint.setColor(getBandColor(band));
+            if (lineCounts[band] > 0) {
+                chartPaint.setStrokeCap(Paint.Cap.BUTT);
+                chartPaint.setStrokeWidth(LINE_WIDTH);
+                canvas.drawLines(bandLines[band], 0, lineCounts[band], chartPaint);
+            }
+            if (pointCounts[band] > 0) {
+                chartPaint.setStrokeCap(Paint.Cap.ROUND);
+                chartPaint.setStrokeWidth(2 * DOT_RADIUS);
+                canvas.drawPoints(bandPoints[band], 0, pointCounts[band], chartPaint);
+            }
+        }
+    }
 
+    /**
+     * Draws background, hour and threshold lines to the grid layer
+     */
+    private void drawGrid(GraphRange graphRange, float xOffset, float yOffset, float xStep, int count) {
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "graph: Bitmap size: " + bitmap.getWidth() + " x " + bitmap.getHeight());
+            Log.d(LOG_TAG, "graph: Padding: " + params.leftPadding + ", " + params.topPadding + ", " + params.rightPadding + ", " + params.bottomPadding);
+        }
+
+        if (gridBitmap == null || gridBitmap.getWidth() != bitmap.getWidth() || gridBitmap.getHeight() != bitmap.getHeight()) {
+            gridBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+        gridBitmap.eraseColor(params.backgroundColor);
+        gridRange = graphRange;
+
+        canvas.setBitmap(gridBitmap);
+        chartPaint.reset();
+        chartPaint.setAntiAlias(true);
+        chartPaint.setStrokeWidth(1f);
+
+        float y;
         float xMax = bounds.width() - 1 - params.rightPadding;
         float yMax = bounds.height() - 1 - params.bottomPadding;
 
-        // draw hour interval (vertical) lines
+        // draw hour interval (vertical) lines, less dense for longer windows
         if (params.enableVertLines) {
-            paint.setColor(params.vertLineColor);
-            for (int mins = HOUR_IN_MINUTES;; mins += HOUR_IN_MINUTES) {
-                float lx = xOffset + (2 * DOT_RADIUS + padding) * (count - 1 - mins / (float) params.refreshRateMin);
+            chartPaint.setColor(params.vertLineColor);
+            int interval = Math.max(1, getWindowHours() / 4) * HOUR_IN_MINUTES;
+            for (int mins = interval;; mins += interval) {
+                float lx = xOffset + xStep * (count - 0.5f - mins / (float) bucketMin);
                 if (lx < params.leftPadding) {
                     break;
                 }
-                canvas.drawLine(lx, params.topPadding, lx, yMax, paint);
+                canvas.drawLine(lx, params.topPadding, lx, yMax, chartPaint);
             }
         }
 
         // draw critical boundaries (horizontal) lines
         if (params.enableCriticalLines) {
-            paint.setColor(params.criticalLineColor);
+            chartPaint.setColor(params.criticalLineColor);
             if (graphRange.isInRange(params.hyperThreshold)) {
                 y = yOffset - (params.hyperThreshold - graphRange.min) * graphRange.scale;
-                canvas.drawLine(params.leftPadding, y, xMax, y, paint);
+                canvas.drawLine(params.leftPadding, y, xMax, y, chartPaint);
             }
 
             if (graphRange.isInRange(params.hypoThreshold)) {
                 y = yOffset - (params.hypoThreshold - graphRange.min) * graphRange.scale;
-                canvas.drawLine(params.leftPadding, y, xMax, y, paint);
+                canvas.drawLine(params.leftPadding, y, xMax, y, chartPaint);
             }
         }
 
         // draw high boundary line (horizontal)
         if (params.enableHighLine && graphRange.isInRange(params.highThreshold)) {
-            paint.setColor(params.highLineColor);
+            chartPaint.setColor(params.highLineColor);
             y = yOffset - (params.highThreshold - graphRange.min) * graphRange.scale;
-            canvas.drawLine(params.leftPadding, y, xMax, y, paint);
+            canvas.drawLine(params.leftPadding, y, xMax, y, chartPaint);
         }
 
         // draw low boundary line (horizontal)
         if (params.enableLowLine && graphRange.isInRange(params.lowThreshold)) {
-            paint.setColor(params.lowLineColor);
+            chartPaint.setColor(params.lowLineColor);
             y = yOffset - (params.lowThreshold - graphRange.min) * graphRange.scale;
-            canvas.drawLine(params.leftPadding, y, xMax, y, paint);
+            canvas.drawLine(params.leftPadding, y, xMax, y, chartPaint);
         }
+    }
 
-        // get offset of the left most value
-        int valueOffset = GRAPH_DATA_LEN - count;
-
-        // draw values
-        int color;
-        float prevX = 0, prevY = 0;
-        for (int i = valueOffset; i < GRAPH_DATA_LEN; i++) {
-            int value = graphData[i];
-            if (value == 0) {
-                prevX = prevY = 0;
-                continue;
-            } else if (value < GRAPH_MIN_VALUE) {
-                value = GRAPH_MIN_VALUE;
-            }
-            if (value > GRAPH_MAX_VALUE) {
-                value = GRAPH_MAX_VALUE;
-            }
-
-            x = xOffset + (2 * DOT_RADIUS + padding) * (i - valueOffset);
-            y = yOffset - ((value - graphRange.min) * graphRange.scale);
-
-            if (value <= params.hypoThreshold) {
-                color = params.hypoColor;
-            } else if (value <= params.lowThreshold) {
-                color = params.lowColor;
-            } else if (value < params.highThreshold) {
-                color = params.inRangeColor;
-            } else if (value < params.hyperThreshold) {
-                color = params.highColor;
-            } else {
-                color = params.hyperColor;
-            }
-
-            paint.setColor(color);
-
-            // draw value with color
-            if (params.drawChartLine) { // line graph
-                paint.setStrokeWidth(LINE_WIDTH);
-                if (prevX == 0 || prevY == 0) {
-                    canvas.drawLine(x - LINE_WIDTH / 2f, y, x + LINE_WIDTH / 2f, y, paint);
-                } else {
-                    canvas.drawLine(prevX, prevY, x, y, paint);
-                }
-            }
-
-            if (params.drawChartDots) { // dot graph
-                canvas.drawCircle(x, y, DOT_RADIUS, paint);
-            }
+    private int getBand(int value) {
+        if (value <= params.hypoThreshold) {
+            return BAND_HYPO;
+        } else if (value <= params.lowThreshold) {
+            return BAND_LOW;
+        } else if (value < params.highThreshold) {
+            return BAND_IN_RANGE;
+        } else if (value < params.hyperThreshold) {
+            return BAND_HIGH;
+        } else {
+            return BAND_HYPER;
+        }
+    }
 
-            prevX = x;
-            prevY = y;
+    private int getBandColor(int band) {
+        switch (band) {
+            case BAND_HYPO:
+                return params.hypoColor;
+            case BAND_LOW:
+                return params.lowColor;
+            case BAND_IN_RANGE:
+                return params.inRangeColor;
+            case BAND_HIGH:
+                return params.highColor;
+            default:
+                return params.hyperColor;
         }
     }
 
@@ -319,125 +680,50 @@ public class BgGraph {
 
 
     /**
-     * Store graph data to its persistent storage
-     */
-    public static void storeChartData(SharedPreferences sharedPrefs, int[] graphData, long lastGraphUpdateMin) {
-        Log.w(LOG_TAG, "storeChartData: ");
-        try {
-            String serialized = Arrays.stream(graphData)
-                    .mapToObj(Integer::toString)
-                    .collect(Collectors.joining(":"));
-
-            SharedPreferences.Editor edit = sharedPrefs.edit();
-            edit.putString(PREF_DATA, serialized);
-            edit.putInt(PREF_DATA_LAST_UPD_MIN, (int) lastGraphUpdateMin);
-            edit.commit();
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "graph: storeChartData: failed to store data: " + e.getLocalizedMessage());
-        }
-    }
-
-    /**
-     * Restore graph data from persistent storage and return the time of the last update
+     * Stores received values to the persistent graph data, older values are inserted at their position
      */
-    public static long restoreChartData(SharedPreferences sharedPrefs, int[] graphData) {
-        Log.w(LOG_TAG, "restoreChartData: ");
-        int lastGraphUpdateMin = sharedPrefs.getInt(PREF_DATA_LAST_UPD_MIN, -1);
-        if (lastGraphUpdateMin == -1) {
-            Log.w(LOG_TAG, "graph: no data timestamp to restore");
-            return 0L;
-        }
-
-        String serialized = sharedPrefs.getString(PREF_DATA, null);
-        if (serialized == null) {
-            Log.w(LOG_TAG, "graph: no data to restore");
-            return 0L;
+    public static void storeValues(Context context, int[] bgValues, long[] bgTimestamps, int count) {
+        BgRingStore store = getStore(context);
+        if (store == null) {
+            return;
         }
-
-        try {
-            int[] data = Arrays.stream(serialized.split(":"))
-                    .mapToInt(Integer::valueOf)
-                    .toArray();
-            if (data.length != GRAPH_DATA_LEN) {
-                Log.w(LOG_TAG, "graph: failed to deserialize data");
-                return 0L;
+        for (int i = 0; i < count; i++) {
+            if (!store.append(bgTimestamps[i] / MINUTE_IN_MILLIS, bgValues[i]) && BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "graph: value ignored: " + bgValues[i] + ", " + bgTimestamps[i]);
             }
-            System.arraycopy(data, 0, graphData, 0, Math.min(GRAPH_DATA_LEN, data.length));
-            return lastGraphUpdateMin;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "graph: failed to restore data: " + e.getLocalizedMessage());
-            return 0L;
         }
     }
 
-    /**
-     *  Update persisted graph data and redraw graph
-     */
-    public static void updateAndRedraw(Double bgValue, long bgTimestamp, SharedPreferences sharedPrefs, int refreshRateMin) {
-        Log.w(LOG_TAG, "updateAndRedraw: ");
-        int[] graphData = new int[BgGraph.GRAPH_DATA_LEN];
-        long lastGraphUpdateMin = BgGraph.restoreChartData(sharedPrefs, graphData);
-        BgGraph.updateGraphData((double)bgValue, bgTimestamp, sharedPrefs, graphData, lastGraphUpdateMin, refreshRateMin);
+    private static BgRingStore getStore(Context context) {
+        BgRingStore store = BgRingStore.get(context);
+        if (store != null && store.getGeneration() == 0) {
+            importLegacyData(context, store);
+        }
+        return store;
     }
 
     /**
-     * Update chart data and store data to persistent storage
-     *
-     * @see #storeChartData(SharedPreferences, int[], long)
+     * Moves graph data from the former preference string format to the ring store
      */
-    public static long updateGraphData(Double bgValue, long timestamp, SharedPreferences sharedPrefs, int[] graphData, long lastGraphUpdateMin, int refreshRateMin) {
-        Log.w(LOG_TAG, "updateGraphData: " + bgValue + ", " + timestamp + ", " + lastGraphUpdateMin);
-        if (BuildConfig.DEBUG && bgValue != null) {
-            Log.d(LOG_TAG, "graph: updateGraphData: " + bgValue);
-        }
-
-        final long now = System.currentTimeMillis() / MINUTE_IN_MILLIS; // minutes
-        if (now < 0) {
-            Log.e(LOG_TAG, "graph: now is negative: " + now);
-            return 0L;
+    private static void importLegacyData(Context context, BgRingStore store) {
+        ConfigStore prefs = ConfigStore.get(context);
+        int lastGraphUpdateMin = prefs.getInt(PREF_DATA_LAST_UPD_MIN, -1);
+        String serialized = prefs.getString(PREF_DATA, null);
+        if (lastGraphUpdateMin == -1 || serialized == null) {
+            return;
         }
 
-        boolean dataChanged = false;
-
-        if (lastGraphUpdateMin != 0) {
-            // shift data left
-            int roll = (int) ((now - lastGraphUpdateMin) / refreshRateMin);
-            if (roll > 0) {
-                lastGraphUpdateMin = now;
-                if (BuildConfig.DEBUG) {
-                    Log.w(LOG_TAG, "graph: clearing data buffer: " + roll);
-                }
-                if (roll >= GRAPH_DATA_LEN) {
-                    Arrays.fill(graphData, 0);
-                } else {
-                    graphData = Arrays.copyOfRange(graphData, roll, roll + GRAPH_DATA_LEN);
-                }
-                dataChanged = true;
-            }
-        } else {
-            lastGraphUpdateMin = now;
-        }
-
-        // set new data
-        if (bgValue != null) {
-            long tsData = timestamp / MINUTE_IN_MILLIS;
-            int diff = (int) Math.round((now - tsData)/(double)refreshRateMin);
-            if (0 <= diff && diff < GRAPH_DATA_LEN) {
-                int newValue = bgValue.intValue();
-                int idx = GRAPH_DATA_LEN - 1 - diff;
-                int oldValue = graphData[idx];
-                int value = oldValue == 0 ? newValue : (oldValue + newValue)/2; // kind of average
-                graphData[idx] = value;
-                dataChanged = true;
+        try {
+            String[] values = serialized.split(":");
+            int period = prefs.getInt(BgDataProcessor.PREF_SAMPLE_PERIOD_MIN, context.getResources().getInteger(R.integer.def_bg_sample_period));
+            for (int i = 0; i < values.length; i++) {
+                store.append(lastGraphUpdateMin - (long) (values.length - 1 - i) * period, Integer.parseInt(values[i]));
             }
-//            lastGraphUpdateMin = now;
-        }
-
-        if (dataChanged) {
-            storeChartData(sharedPrefs, graphData, (int) lastGraphUpdateMin);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "graph: failed to import data: " + e.getLocalizedMessage());
         }
-
-        return lastGraphUpdateMin;
+        prefs.remove(PREF_DATA);
+        prefs.remove(PREF_DATA_LAST_UPD_MIN);
     }
 
     public long getLastGraphUpdateMin() {
@@ -493,7 +779,9 @@ public class BgGraph {
         private boolean drawChartLine;
         private boolean drawChartDots;
 
+        /** expected sample period, longer gaps between samples are not connected */
         private int refreshRateMin;
+        private int windowHours;
 
         public int getLeftPadding() {
             return leftPadding;
@@ -702,5 +990,13 @@ public class BgGraph {
         public void setRefreshRateMin(int refreshRateMin) {
             this.refreshRateMin = refreshRateMin;
         }
+
+        public int getWindowHours() {
+            return windowHours;
+        }
+
+        public void setWindowHours(int windowHours) {
+            this.windowHours = windowHours;
+        }
     }
 }
@@ -30,11 +30,10 @@ import androidx.preference.PreferenceManager;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.config.WatchfaceConfig;
 import sk.trupici.gwatch.wear.data.BgData;
+import sk.trupici.gwatch.wear.data.BgRepository;
 import sk.trupici.gwatch.wear.util.CommonConstants;
 
-import static sk.trupici.gwatch.wear.common.util.CommonConstants.MINUTE_IN_MILLIS;
-
-public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel {
+public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel, BgRepository.Observer {
     final private static String LOG_TAG = BgGraphPanel.class.getSimpleName();
 
     public static final int CONFIG_ID = 12;
@@ -61,6 +60,8 @@ public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel {
     public static final String PREF_TYPE_LINE = "graph_type_draw_line";
     public static final String PREF_TYPE_DOTS = "graph_type_draw_dots";
 
+    public static final String PREF_WINDOW_HOURS = "graph_window_hours";
+
     private static final String PREF_REFRESH_RATE = "graph_refresh_rate";
 
 
@@ -100,7 +101,7 @@ public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel {
         params.setRightPadding(padding.right);
         params.setBottomPadding(padding.bottom);
 
-        bgGraph.create(sharedPrefs, params, bounds);
+        bgGraph.create(context, params, bounds);
         onConfigChanged(context, sharedPrefs);
     }
 
@@ -143,6 +144,7 @@ public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel {
         params.setDrawChartDots(sharedPrefs.getBoolean(watchfaceConfig.getPrefsPrefix() + PREF_TYPE_DOTS, context.getResources().getBoolean(R.bool.def_graph_type_draw_dots)));
 
         params.setRefreshRateMin(sharedPrefs.getInt(watchfaceConfig.getPrefsPrefix() + PREF_REFRESH_RATE, context.getResources().getInteger(R.integer.def_graph_refresh_rate)));
+        params.setWindowHours(sharedPrefs.getInt(watchfaceConfig.getPrefsPrefix() + PREF_WINDOW_HOURS, context.getResources().getInteger(R.integer.def_graph_window_hours)));
 
         // levels - external BG panel settings dependency !
         params.setHypoThreshold(sharedPrefs.getInt(CommonConstants.PREF_HYPO_THRESHOLD, context.getResources().getInteger(R.integer.def_bg_threshold_hypo)));
@@ -162,26 +164,27 @@ public class BgGraphPanel extends BroadcastReceiver implements ComponentPanel {
         bgGraph.draw(canvas, isAmbientMode);
     }
 
-    public void refresh(long timeMs, SharedPreferences sharedPrefs) {
-        long currentMinute = timeMs / MINUTE_IN_MILLIS;
-        if (bgGraph.getLastGraphUpdateMin() != currentMinute) {
-            bgGraph.updateGraphData(null, timeMs, sharedPrefs);
-        }
+    /**
+     * Called for every frame, graph data is updated in memory on a new graph slot only
+     */
+    public void refresh(long timeMs) {
+        bgGraph.advance(timeMs);
     }
 
 
+    @Override
+    public void onBgData(Context context, BgData bgData) {
+        if (bgData.getValue() == 0 || bgData.getTimestamp() == 0) {
+            return;
+        }
+        // value is already stored by the processor, just reload
+        bgGraph.updateGraphData(System.currentTimeMillis());
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        if (CommonConstants.BG_RECEIVER_ACTION.equals(intent.getAction())) {
-            Bundle extras = intent.getExtras();
-            BgData bgData = BgData.fromBundle(extras);
-            if (bgData.getValue() == 0 || bgData.getTimestamp() == 0) {
-                return;
-            }
-            bgGraph.updateGraphData((double)bgData.getValue(), bgData.getTimestamp(), sharedPrefs);
-        } else if (CommonConstants.REMOTE_CONFIG_ACTION.equals(intent.getAction())) {
-            onConfigChanged(context, sharedPrefs);
+        if (CommonConstants.REMOTE_CONFIG_ACTION.equals(intent.getAction())) {
+            onConfigChanged(context, PreferenceManager.getDefaultSharedPreferences(context));
         } else {
             Log.e(LOG_TAG, "onReceive: unsupported intent: " + intent.getAction());
         }
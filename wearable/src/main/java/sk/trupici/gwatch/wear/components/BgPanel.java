@@ -40,6 +40,7 @@ import sk.trupici.gwatch.wear.config.BorderType;
 import sk.trupici.gwatch.wear.config.WatchfaceConfig;
 import sk.trupici.gwatch.wear.config.complications.ComplicationConfig;
 import sk.trupici.gwatch.wear.data.BgData;
+import sk.trupici.gwatch.wear.data.BgRepository;
 import sk.trupici.gwatch.wear.util.BorderUtils;
 import sk.trupici.gwatch.wear.util.CommonConstants;
 import sk.trupici.gwatch.wear.util.UiUtils;
@@ -57,7 +58,7 @@ import static sk.trupici.gwatch.wear.util.BorderUtils.BORDER_WIDTH;
 /**
  * Component showing BG value and related info (trend, delta, etc...)
  */
-public class BgPanel extends BroadcastReceiver implements ComponentPanel {
+public class BgPanel extends BroadcastReceiver implements ComponentPanel, BgRepository.Observer {
 
     public static final String LOG_TAG = BgPanel.class.getSimpleName();
 
@@ -143,20 +144,26 @@ public class BgPanel extends BroadcastReceiver implements ComponentPanel {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (CommonConstants.BG_RECEIVER_ACTION.equals(intent.getAction())) {
-            Bundle extras = intent.getExtras();
-            if (extras != null) {
-                onDataUpdate(BgData.fromBundle(extras));
-            }
-        } else if (CommonConstants.REMOTE_CONFIG_ACTION.equals(intent.getAction())) {
+        if (CommonConstants.REMOTE_CONFIG_ACTION.equals(intent.getAction())) {
             onConfigChanged(context, PreferenceManager.getDefaultSharedPreferences(context));
         } else {
             Log.e(LOG_TAG, "onReceive: unsupported intent: " + intent.getAction());
         }
     }
 
+    @Override
+    public void onBgData(Context context, BgData bgData) {
+        onDataUpdate(bgData);
+    }
+
     @Override
     public void onCreate(Context context, SharedPreferences sharedPrefs) {
+        // show the last value received by this process right away, e.g. when the watch face is recreated
+        BgData latest = BgRepository.getLatest();
+        if (latest != null) {
+            lastBgData = latest;
+        }
+
         RectF bounds = watchfaceConfig.getBgPanelBounds(context);
         sizeFactors = new RectF(
                 bounds.left / (float)refScreenWidth,
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.components;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling over buckets aligned to time.
+ *
+ * Each bucket keeps the sample forming the largest triangle with the sample selected
+ * in the previous bucket and the average of the next non-empty bucket.
+ * The newest bucket keeps its latest sample, so the current value is always shown.
+ *
+ * As buckets do not depend on the sample count, a new sample changes selection
+ * of its own and the previous bucket only and the rest of the result can be reused.
+ */
+class LttbDownsampler {
+
+    private LttbDownsampler() {
+    }
+
+    /**
+     * Selects one sample per bucket. Buckets before {@code fromIdx} are left untouched,
+     * selection of the last non-empty one is used as the previous point.
+     *
+     * @param times sample times in minutes, ordered from the oldest
+     * @param values sample values
+     * @param size number of samples, samples older than bucket {@code fromIdx} are skipped
+     * @param firstBucket id (time / bucketMin) of the bucket at index 0
+     * @param bucketMin bucket duration in minutes
+     * @param count number of buckets
+     * @param fromIdx first bucket to select
+     * @param outTimes selected sample time per bucket
+     * @param outValues selected sample value per bucket, 0 for empty bucket
+     */
+    static void downsample(int[] times, int[] values, int size, long firstBucket, int bucketMin, int count,
+                           int fromIdx, int[] outTimes, int[] outValues) {
+
+        // previous selected point
+        int prevIdx = fromIdx - 1;
+        while (prevIdx >= 0 && outValues[prevIdx] == 0) {
+            prevIdx--;
+        }
+        boolean hasPrev = prevIdx >= 0;
+        long prevTime = hasPrev ? outTimes[prevIdx] : 0;
+        int prevValue = hasPrev ? outValues[prevIdx] : 0;
+
+        int start = 0;
+        while (start < size && times[start] / bucketMin - firstBucket < fromIdx) {
+            start++;
+        }
+
+        for (int idx = fromIdx; idx < count; idx++) {
+            long bucket = firstBucket + idx;
+            int end = start;
+            while (end < size && times[end] / bucketMin == bucket) {
+                end++;
+            }
+            if (end == start) {
+                outValues[idx] = 0;
+                continue;
+            }
+
+            // average of the next non-empty bucket
+            int nextEnd = end;
+            long nextBucket = end < size ? times[end] / bucketMin : 0;
+            long sumTime = 0;
+            long sumValue = 0;
+            while (nextEnd < size && times[nextEnd] / bucketMin == nextBucket && nextBucket - firstBucket < count) {
+                sumTime += times[nextEnd];
+                sumValue += values[nextEnd];
+                nextEnd++;
+            }
+
+            int selected;
+            if (nextEnd == end) {
+                selected = end - 1; // no next point, keep the latest
+            } else if (!hasPrev) {
+                selected = start; // no previous point, keep the oldest
+            } else {
+                int nextCount = nextEnd - end;
+                double nextTime = sumTime / (double) nextCount - prevTime;
+                double nextValue = sumValue / (double) nextCount - prevValue;
+                selected = start;
+                double maxArea = -1;
+                for (int i = start; i < end; i++) {
+                    // doubled triangle area, relative to the previous point
+                    double area = Math.abs(nextTime * (values[i] - prevValue) - nextValue * (times[i] - prevTime));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        selected = i;
+                    }
+                }
+            }
+
+            outTimes[idx] = times[selected];
+            outValues[idx] = values[selected];
+            hasPrev = true;
+            prevTime = times[selected];
+            prevValue = values[selected];
+            start = end;
+        }
+    }
+}
@@ -37,6 +37,7 @@ import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.config.item.BasicConfigItem;
 import sk.trupici.gwatch.wear.config.item.BoolConfigItem;
 import sk.trupici.gwatch.wear.config.item.ConfigItem;
+import sk.trupici.gwatch.wear.config.item.OptionConfigItem;
 
 /**
  * {@code Adapter} for {@code ConfigItem} list
@@ -113,6 +114,9 @@ public class ConfigItemListAdapter extends RecyclerView.Adapter<RecyclerView.Vie
             case TYPE_SWITCH:
                 viewHolder = new SwitchViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.config_list_switch_item, parent, false));
                 break;
+            case TYPE_OPTION:
+                viewHolder = new OptionViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.config_list_button_item, parent, false));
+                break;
             default:
                 throw new IllegalArgumentException(""+type);
         }
@@ -148,6 +152,15 @@ public class ConfigItemListAdapter extends RecyclerView.Adapter<RecyclerView.Vie
                         (boolConfigItem.isGlobal() ? "" : watchfaceConfig.getPrefsPrefix()) + boolConfigItem.getPreferenceName(),
                         defaultValue);
                 break;
+            case TYPE_OPTION:
+                OptionViewHolder optionViewHolder = (OptionViewHolder) holder;
+                OptionConfigItem optionConfigItem = (OptionConfigItem) configItem;
+                optionViewHolder.init(
+                        optionConfigItem.getLabelResourceId(),
+                        watchfaceConfig.getPrefsPrefix() + optionConfigItem.getPreferenceName(),
+                        context.getResources().getIntArray(optionConfigItem.getValuesResourceId()),
+                        context.getResources().getInteger(optionConfigItem.getDefaultValueResourceId()));
+                break;
             default:
                 throw new IllegalArgumentException(""+type);
         }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2022 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.config;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.Button;
+
+import androidx.recyclerview.widget.RecyclerView;
+import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
+
+/**
+ * Button view holder switching to the next of the offered values on every click.
+ * Label resource is expected to be a format string with the value as the only argument.
+ */
+public class OptionViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+    final private Button button;
+    private int labelId;
+    private String prefName;
+    private int[] values;
+    private int value;
+
+    public OptionViewHolder(View view) {
+        super(view);
+        button = view.findViewById(R.id.button);
+        view.setOnClickListener(this);
+    }
+
+    public void init(int labelId, String prefName, int[] values, int defaultValue) {
+        this.labelId = labelId;
+        this.prefName = prefName;
+        this.values = values;
+
+        value = PreferenceUtils.getIntValue(button.getContext(), prefName, defaultValue);
+        updateLabel();
+    }
+
+    @Override
+    public void onClick(View view) {
+        int idx = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                idx = (i + 1) % values.length;
+                break;
+            }
+        }
+        value = values[idx];
+        PreferenceUtils.setIntValue(view.getContext(), prefName, value);
+        updateLabel();
+    }
+
+    private void updateLabel() {
+        Context context = button.getContext();
+        button.setText(context.getString(labelId, value));
+    }
+}
@@ -36,6 +36,7 @@ public interface ConfigItem {
         TYPE_BORDER_COLOR,
         TYPE_DATA_COLOR,
         TYPE_BKG_COLOR,
+        TYPE_OPTION,
         ;
 
         public static Type valueOf(int ordinal) {
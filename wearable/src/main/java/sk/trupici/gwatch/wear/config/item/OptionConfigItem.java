@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2022 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sk.trupici.gwatch.wear.config.item;
+
+/**
+ * Config item selecting one of integer values defined by an array resource.
+ */
+public class OptionConfigItem extends BasicConfigItem {
+
+    final private int valuesResourceId;
+
+    public OptionConfigItem(int labelResourceId, String preferenceName, int valuesResourceId, int defaultValueResourceId) {
+        super(labelResourceId, -1, preferenceName, Type.TYPE_OPTION, defaultValueResourceId, false);
+        this.valuesResourceId = valuesResourceId;
+    }
+
+    public int getValuesResourceId() {
+        return valuesResourceId;
+    }
+}
@@ -21,9 +21,15 @@ import sk.trupici.gwatch.wear.components.BgGraphPanel;
 import sk.trupici.gwatch.wear.config.item.BasicConfigItem;
 import sk.trupici.gwatch.wear.config.item.BoolConfigItem;
 import sk.trupici.gwatch.wear.config.item.ConfigItem;
+import sk.trupici.gwatch.wear.config.item.OptionConfigItem;
 
 public class BgGraphMenuItems {
     final public static ConfigItem[] items = {
+            new OptionConfigItem(
+                    R.string.config_item_graph_window,
+                    BgGraphPanel.PREF_WINDOW_HOURS,
+                    R.array.graph_window_hours,
+                    R.integer.def_graph_window_hours),
             new BoolConfigItem(
                     R.string.config_item_graph_enable_dynamic_range,
                     BgGraphPanel.PREF_ENABLE_DYNAMIC_RANGE,
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.trupici.gwatch.wear.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide holder of the latest received glucose value.
+ * Observers receive the immutable {@link BgData} directly on the main thread,
+ * the observer array is replaced on (un)registration, so notification takes no lock.
+ */
+public class BgRepository {
+    private final static String LOG_TAG = BgRepository.class.getSimpleName();
+
+    public interface Observer {
+        void onBgData(Context context, BgData bgData);
+    }
+
+    private static final Observer[] NO_OBSERVERS = new Observer[0];
+
+    private static final AtomicReference<Observer[]> observers = new AtomicReference<>(NO_OBSERVERS);
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static volatile BgData latest;
+
+    public static BgData getLatest() {
+        return latest;
+    }
+
+    public static void addObserver(Observer observer) {
+        Observer[] current;
+        Observer[] updated;
+        do {
+            current = observers.get();
+            for (Observer o : current) {
+                if (o == observer) {
+                    return;
+                }
+            }
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = observer;
+        } while (!observers.compareAndSet(current, updated));
+    }
+
+    public static void removeObserver(Observer observer) {
+        Observer[] current;
+        Observer[] updated;
+        do {
+            current = observers.get();
+            int idx = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == observer) {
+                    idx = i;
+                    break;
+                }
+            }
+            if (idx < 0) {
+                return;
+            }
+            updated = new Observer[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, idx);
+            System.arraycopy(current, idx + 1, updated, idx, current.length - idx - 1);
+        } while (!observers.compareAndSet(current, updated));
+    }
+
+    /**
+     * Stores new value and notifies all observers on the main thread
+     */
+    public static void publish(Context context, BgData bgData) {
+        publish(context, Collections.singletonList(bgData));
+    }
+
+    /**
+     * Stores the last of new values ordered by time and notifies all observers once with it
+     */
+    public static void publish(Context context, List<BgData> bgDataList) {
+        if (bgDataList.isEmpty()) {
+            return;
+        }
+        final BgData last = bgDataList.get(bgDataList.size() - 1);
+        latest = last;
+
+        final Context appContext = context.getApplicationContext();
+        mainHandler.post(() -> notifyObservers(appContext, last));
+    }
+
+    private static void notifyObservers(Context context, BgData bgData) {
+        for (Observer observer : observers.get()) {
+            try {
+                observer.onBgData(context, bgData);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Observer failed: " + observer.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
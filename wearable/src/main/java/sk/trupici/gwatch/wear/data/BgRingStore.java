@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2021 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.trupici.gwatch.wear.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Glucose history in a fixed-size memory-mapped ring file.
+ *
+ * Header: magic (int), version (short), reserved (short), capacity (int), reserved (int),
+ * generation (long) - total number of appended records.
+ * Record (long): time in minutes (int), value (unsigned short), generation tag (unsigned short).
+ *
+ * Appending is a single aligned record write followed by the generation update.
+ * A record written before a crash but not yet counted in the header is recognized by its tag
+ * and recovered on open, so the file is always consistent.
+ * Older (backfilled) values are inserted by shifting newer records one slot forward,
+ * starting with the newest. A crash during the shift leaves one record duplicated
+ * and the inserted value missing, records stay ordered by time.
+ * Reads do not allocate.
+ */
+public class BgRingStore {
+    private final static String LOG_TAG = BgRingStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "bg_ring.dat";
+
+    public static final int CAPACITY = 288 * 7; // a week of 5 min samples
+
+    private static final int MAGIC = 0x47575253; // GWRS
+    private static final short VERSION = 1;
+
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int GENERATION_OFFSET = 16;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 8;
+
+    private static BgRingStore instance;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long generation;
+    /** number of changes of records other than the newest one since the store was opened */
+    private long backfillCount;
+
+    private BgRingStore(MappedByteBuffer buffer, int capacity, long generation) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.generation = generation;
+    }
+
+    /**
+     * @return process-wide store, null if the file cannot be opened
+     */
+    public static synchronized BgRingStore get(Context context) {
+        if (instance == null) {
+            try {
+                instance = open(new File(context.getFilesDir(), FILE_NAME), CAPACITY);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to open store", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Opens or creates the ring file, the file is recreated if it is not valid
+     */
+    public static BgRingStore open(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean isNew = raf.length() != size;
+            if (isNew) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!isNew && (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                    || buffer.getInt(CAPACITY_OFFSET) != capacity || buffer.getLong(GENERATION_OFFSET) < 0)) {
+                Log.w(LOG_TAG, "Invalid store header, data discarded");
+                isNew = true;
+                for (int offset = 0; offset < size; offset += RECORD_SIZE) {
+                    buffer.putLong(offset, 0L);
+                }
+            }
+            if (isNew) {
+                buffer.putInt(CAPACITY_OFFSET, capacity);
+                buffer.putLong(GENERATION_OFFSET, 0L);
+                buffer.putShort(4, VERSION);
+                buffer.putInt(0, MAGIC);
+            }
+
+            BgRingStore store = new BgRingStore(buffer, capacity, buffer.getLong(GENERATION_OFFSET));
+            store.recover();
+            return store;
+        }
+    }
+
+    /**
+     * Counts a record written just before the generation update was lost
+     */
+    private void recover() {
+        long record = buffer.getLong(getOffset(generation + 1));
+        // the same time as the newest record means an interrupted insert, the duplicate is kept
+        if (getTag(record) == getTag(generation + 1) && getTimeMin(record) > 0
+                && (generation == 0 || getTimeMin(record) >= getLastTimeMin())) {
+            Log.w(LOG_TAG, "Recovered record " + (generation + 1));
+            generation++;
+            buffer.putLong(GENERATION_OFFSET, generation);
+        }
+    }
+
+    public synchronized int getCount() {
+        return (int) Math.min(generation, capacity);
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return counter increased whenever a record other than the newest one is inserted or replaced
+     */
+    public synchronized long getBackfillCount() {
+        return backfillCount;
+    }
+
+    /**
+     * @return time of the newest record in minutes, 0 if empty
+     */
+    public synchronized long getLastTimeMin() {
+        return generation == 0 ? 0 : getTimeMin(buffer.getLong(getOffset(generation)));
+    }
+
+    /**
+     * Appends value sampled at given time (minutes).
+     * Value with the same time as an existing record replaces it, older values are inserted
+     * at their position. Values older than the oldest record of a full store are ignored.
+     * @return false if the value was ignored
+     */
+    public synchronized boolean append(long timeMin, int value) {
+        if (timeMin <= 0 || timeMin > Integer.MAX_VALUE || value <= 0 || value > 0xFFFF) {
+            return false;
+        }
+        if (generation == 0 || timeMin > getLastTimeMin()) {
+            buffer.putLong(getOffset(generation + 1), toRecord(timeMin, value, generation + 1));
+            generation++;
+            buffer.putLong(GENERATION_OFFSET, generation);
+            return true;
+        }
+
+        // find the newest record not newer than the value
+        long oldest = Math.max(1, generation - capacity + 1);
+        long gen = generation;
+        while (gen >= oldest && getTimeMin(buffer.getLong(getOffset(gen))) > timeMin) {
+            gen--;
+        }
+        if (gen >= oldest && getTimeMin(buffer.getLong(getOffset(gen))) == timeMin) {
+            buffer.putLong(getOffset(gen), toRecord(timeMin, value, gen));
+        } else if (gen < oldest && generation >= capacity) {
+            return false; // would be dropped right away
+        } else {
+            insert(gen + 1, toRecord(timeMin, value, gen + 1));
+        }
+        if (gen < generation) {
+            backfillCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Inserts record at given generation, newer records are moved one slot forward
+     */
+    private void insert(long insertGen, long record) {
+        // newest record is duplicated and counted first, then the rest is shifted over it
+        long last = buffer.getLong(getOffset(generation));
+        buffer.putLong(getOffset(generation + 1), retag(last, generation + 1));
+        generation++;
+        buffer.putLong(GENERATION_OFFSET, generation);
+
+        for (long gen = generation - 1; gen > insertGen; gen--) {
+            buffer.putLong(getOffset(gen), retag(buffer.getLong(getOffset(gen - 1)), gen));
+        }
+        buffer.putLong(getOffset(insertGen), record);
+    }
+
+    /**
+     * Reads records not older than given time ordered from the oldest.
+     * @return number of records read, limited by the output arrays length (newest are kept)
+     */
+    public synchronized int read(long fromMin, int[] outTimesMin, int[] outValues) {
+        int max = Math.min(outTimesMin.length, outValues.length);
+        int count = 0;
+        long gen = generation;
+        long oldest = Math.max(1, generation - capacity + 1);
+        while (gen >= oldest && count < max) {
+            long record = buffer.getLong(getOffset(gen));
+            if (getTimeMin(record) < fromMin) {
+                break;
+            }
+            gen--;
+            count++;
+        }
+        for (int i = 0; i < count; i++) {
+            long record = buffer.getLong(getOffset(gen + 1 + i));
+            outTimesMin[i] = (int) getTimeMin(record);
+            outValues[i] = getValue(record);
+        }
+        return count;
+    }
+
+    private int getOffset(long gen) {
+        return HEADER_SIZE + (int) ((gen - 1) % capacity) * RECORD_SIZE;
+    }
+
+    private static long toRecord(long timeMin, int value, long gen) {
+        return (timeMin << 32) | ((long) value << 16) | getTag(gen);
+    }
+
+    private static long retag(long record, long gen) {
+        return (record & ~0xFFFFL) | getTag(gen);
+    }
+
+    private static long getTimeMin(long record) {
+        return record >>> 32;
+    }
+
+    private static int getValue(long record) {
+        return (int) (record >>> 16) & 0xFFFF;
+    }
+
+    private static int getTag(long record) {
+        return (int) record & 0xFFFF;
+    }
+}
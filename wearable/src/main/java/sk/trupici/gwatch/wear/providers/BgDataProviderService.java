@@ -19,7 +19,6 @@ import android.app.PendingIntent;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.graphics.drawable.Icon;
 import android.support.wearable.complications.ComplicationData;
 import android.support.wearable.complications.ComplicationManager;
@@ -32,9 +31,9 @@ import java.util.Date;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import androidx.preference.PreferenceManager;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.common.util.PreferenceUtils;
 
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.HOUR_IN_MILLIS;
@@ -102,7 +101,7 @@ public class BgDataProviderService extends ComplicationProviderService {
             return;
         }
 
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        ConfigStore prefs = ConfigStore.get(this);
         String text = prefs.getString(PREF_TEXT, null);
         String title = prefs.getString(PREF_TITLE, null);
         int value = prefs.getInt(PREF_VALUE, 0);
@@ -28,6 +28,7 @@ import android.widget.TextView;
 
 import androidx.preference.PreferenceManager;
 import sk.trupici.gwatch.wear.R;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.common.util.StringUtils;
 import sk.trupici.gwatch.wear.components.BgGraph;
 import sk.trupici.gwatch.wear.components.BgGraphView;
@@ -49,12 +50,14 @@ public class ComplicationBgGraphActivity extends WearableDialogActivity {
         setContentView(R.layout.layout_complication_graph);
 
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        // provider values are written behind, read them from the store
+        ConfigStore store = ConfigStore.of(sharedPrefs);
 
         TextView valueView = findViewById(R.id.value);
         TextView timeView = findViewById(R.id.timestamp);
 
-        String value = sharedPrefs.getString(BgDataProviderService.PREF_TEXT, null);
-        String delta = sharedPrefs.getString(BgDataProviderService.PREF_TITLE, null);
+        String value = store.getString(BgDataProviderService.PREF_TEXT, null);
+        String delta = store.getString(BgDataProviderService.PREF_TITLE, null);
         if (value != null) {
             String valueLine = value;
             if (delta != null && delta.length() > 0 ) {
@@ -62,7 +65,7 @@ public class ComplicationBgGraphActivity extends WearableDialogActivity {
             }
             valueView.setText(valueLine);
 
-            long timestamp = sharedPrefs.getLong(BgDataProviderService.PREF_LAST_UPDATE, 0);
+            long timestamp = store.getLong(BgDataProviderService.PREF_LAST_UPDATE, 0);
             String timeLine = StringUtils.formatTimeOrNoData(timestamp);
             timeView.setText(timeLine);
         }
@@ -109,6 +112,7 @@ public class ComplicationBgGraphActivity extends WearableDialogActivity {
         graphParams.setDrawChartDots(res.getBoolean(R.bool.def_graph_type_draw_dots));
 
         graphParams.setRefreshRateMin(res.getInteger(R.integer.def_graph_refresh_rate));
+        graphParams.setWindowHours(res.getInteger(R.integer.def_graph_window_hours));
 
         // levels - external BG panel settings dependency !
         graphParams.setHypoThreshold(sharedPrefs.getInt(CommonConstants.PREF_HYPO_THRESHOLD, res.getInteger(R.integer.def_bg_threshold_hypo)));
@@ -116,8 +120,7 @@ public class ComplicationBgGraphActivity extends WearableDialogActivity {
         graphParams.setHighThreshold(sharedPrefs.getInt(CommonConstants.PREF_HIGH_THRESHOLD, res.getInteger(R.integer.def_bg_threshold_high)));
         graphParams.setHyperThreshold(sharedPrefs.getInt(CommonConstants.PREF_HYPER_THRESHOLD, res.getInteger(R.integer.def_bg_threshold_hyper)));
 
-        bgGraph.create(sharedPrefs, graphParams, new RectF(graphBounds));
-        bgGraph.updateGraphData(null, System.currentTimeMillis(), sharedPrefs);
+        bgGraph.create(this, graphParams, new RectF(graphBounds));
         graphView.setBgGraph(bgGraph);
 
         new Handler(Looper.getMainLooper()).postDelayed(this::finish, TIME_TO_CLOSE_MS);
@@ -19,17 +19,16 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.wearable.complications.ProviderUpdateRequester;
 import android.util.Log;
 
 import java.util.Date;
 
-import androidx.preference.PreferenceManager;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.R;
 import sk.trupici.gwatch.wear.common.util.BgUtils;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.common.util.DumpUtils;
 import sk.trupici.gwatch.wear.data.BgData;
 import sk.trupici.gwatch.wear.util.CommonConstants;
@@ -49,10 +48,23 @@ public class ProviderDataUpdater extends BroadcastReceiver {
         }
 
         Bundle extras = intent.getExtras();
-        BgData bgData = BgData.fromBundle(extras);
+        if (extras == null || !update(context, BgData.fromBundle(extras))) {
+            return;
+        }
+
+        // keep the receiver alive until the values are persisted
+        PendingResult result = goAsync();
+        ConfigStore.get(context).flushAsync(result::finish);
+    }
 
+    /**
+     * Stores received values for complication providers and requests their update.
+     * Changes are not flushed here, it is up to the caller.
+     * @return false if the values are older than the stored ones and were ignored
+     */
+    public static boolean update(Context context, BgData bgData) {
         boolean invalidTimestampDiff = false;
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        ConfigStore prefs = ConfigStore.get(context);
         long lastBgTimestamp = prefs.getLong(BgDataProviderService.PREF_LAST_UPDATE, 0L);
         if (lastBgTimestamp > bgData.getTimestamp()) {
             if (BuildConfig.DEBUG) {
@@ -61,12 +73,11 @@ public class ProviderDataUpdater extends BroadcastReceiver {
             if (lastBgTimestamp - bgData.getTimestamp() > DAY_IN_MILLIS) {
                 invalidTimestampDiff = true; // save the last timestamp, maybe the stored value is invalid
             } else { // back filling ?
-                return;
+                return false;
             }
         }
 
-        SharedPreferences.Editor edit = prefs.edit();
-        edit.putLong(BgDataProviderService.PREF_LAST_UPDATE, bgData.getTimestamp());
+        prefs.putLong(BgDataProviderService.PREF_LAST_UPDATE, bgData.getTimestamp());
 
         if (bgData.getTimestampDiff() < 0) {
             invalidTimestampDiff = true; // historical data ?
@@ -79,9 +90,9 @@ public class ProviderDataUpdater extends BroadcastReceiver {
                 Log.i(LOG_TAG, "onReceive: data is too old: " + new Date(bgData.getTimestamp()));
                 Log.i(LOG_TAG, "onReceive: ts diff=" + (System.currentTimeMillis() - bgData.getTimestamp()) + " vs " + HOUR_IN_MILLIS);
             }
-            edit.remove(BgDataProviderService.PREF_TEXT);
-            edit.remove(BgDataProviderService.PREF_TITLE);
-            edit.remove(BgDataProviderService.PREF_VALUE);
+            prefs.remove(BgDataProviderService.PREF_TEXT);
+            prefs.remove(BgDataProviderService.PREF_TITLE);
+            prefs.remove(BgDataProviderService.PREF_VALUE);
         } else {
             boolean isUnitConversion = prefs.getBoolean(CommonConstants.PREF_IS_UNIT_CONVERSION, context.getResources().getBoolean(R.bool.def_bg_is_unit_conversion));
             String text = BgUtils.formatBgValueString(bgData.getValue(), bgData.getTrend(), isUnitConversion);
@@ -97,15 +108,15 @@ public class ProviderDataUpdater extends BroadcastReceiver {
                 Log.i(LOG_TAG, "onReceive: saving: text=" + text + ", title=" + title + ", value=" + bgData.getValue());
             }
 
-            edit.putString(BgDataProviderService.PREF_TEXT, text);
-            edit.putString(BgDataProviderService.PREF_TITLE, title);
-            edit.putInt(BgDataProviderService.PREF_VALUE, bgData.getValue());
+            prefs.putString(BgDataProviderService.PREF_TEXT, text);
+            prefs.putString(BgDataProviderService.PREF_TITLE, title);
+            prefs.putInt(BgDataProviderService.PREF_VALUE, bgData.getValue());
         }
-        edit.commit();
 
-        // Request an update for all active complications
+        // Request an update for all active complications, provider reads the values from the store
         ComponentName provider = new ComponentName(context, BgDataProviderService.class);
         ProviderUpdateRequester requester = new ProviderUpdateRequester(context, provider);
         requester.requestUpdateAll();
+        return true;
     }
 }
@@ -16,76 +16,48 @@
 
 package sk.trupici.gwatch.wear.services;
 
-import android.os.PowerManager;
 import android.util.Log;
 
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.time.Duration;
-
-import androidx.work.Constraints;
-import androidx.work.Data;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.common.data.PacketBase;
 import sk.trupici.gwatch.wear.common.data.PacketType;
 import sk.trupici.gwatch.wear.common.util.DumpUtils;
-import sk.trupici.gwatch.wear.workers.BgDataProcessor;
+import sk.trupici.gwatch.wear.workers.BgDataDispatcher;
 
 public class BgDataListenerService extends WearableListenerService {
 
     private static final String LOG_TAG = BgDataListenerService.class.getSimpleName();
 
-    private static final String WAKE_LOCK_TAG = "gwatch.wear:" + BgDataListenerService.class.getSimpleName() + ".wake_lock";
-    private static final long WAKE_LOCK_TIMEOUT_MS = 60000; // 60s
-
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         Log.d(LOG_TAG, "Received event: " + messageEvent.getPath());
 
-        PowerManager powerManager = (PowerManager)getApplicationContext().getSystemService(POWER_SERVICE);
-        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
-        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
-        try {
-
-            if (!messageEvent.getPath().equals("/bg_data")) {
-                super.onMessageReceived(messageEvent);
-                return;
-            }
-
-            final byte[] data = messageEvent.getData();
-            if (BuildConfig.DEBUG) {
-                Log.d(LOG_TAG, DumpUtils.dumpData(data, data.length));
-            }
-
-            if (data.length < PacketBase.PACKET_HEADER_SIZE) {
-                return;
-            }
+        if (!messageEvent.getPath().equals("/bg_data")) {
+            super.onMessageReceived(messageEvent);
+            return;
+        }
 
-            PacketType type = PacketType.getByCode(data[0]);
-            Log.d(LOG_TAG, "PACKET TYPE: " + (type == null ? "null" : type.name()));
-            if (type != PacketType.GLUCOSE) {
-                Log.d(LOG_TAG, "Packet ignored" + (type == null ? "null" : type.name()));
-                return;
-            }
+        final byte[] data = messageEvent.getData();
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, DumpUtils.dumpData(data, data.length));
+        }
 
-            // schedule delivery to bg processor
-            // TODO consider to use expedited job here
-            Constraints constraints = new Constraints.Builder()
-                    .setTriggerContentMaxDelay(Duration.ofMillis(100))
-                    .build();
-            OneTimeWorkRequest workRequest =
-                    new OneTimeWorkRequest.Builder(BgDataProcessor.class)
-                            .setInputData(new Data.Builder().putByteArray(BgDataProcessor.EXTRA_DATA, data).build())
-                            .setConstraints(constraints)
-                            .build();
+        if (data.length < PacketBase.PACKET_HEADER_SIZE) {
+            return;
+        }
 
-            WorkManager workManager = WorkManager.getInstance(getApplicationContext());
-            workManager.enqueue(workRequest);
-        } finally {
-            wakeLock.release();
+        PacketType type = PacketType.getByCode(data[0]);
+        Log.d(LOG_TAG, "PACKET TYPE: " + (type == null ? "null" : type.name()));
+        if (type != PacketType.GLUCOSE) {
+            Log.d(LOG_TAG, "Packet ignored" + (type == null ? "null" : type.name()));
+            return;
         }
+
+        // onMessageReceived runs on a background thread, wait until processed
+        // so the packet is not lost if the service is stopped, the job is only a fallback
+        BgDataDispatcher.submit(getApplicationContext(), data);
     }
-}
\ No newline at end of file
+}
@@ -16,21 +16,34 @@
 
 package sk.trupici.gwatch.wear.services;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.PowerManager;
 import android.util.Log;
 
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.preference.PreferenceManager;
 import sk.trupici.gwatch.wear.BuildConfig;
 import sk.trupici.gwatch.wear.common.data.ConfigPacket;
+import sk.trupici.gwatch.wear.common.data.ConfigSnapshot;
 import sk.trupici.gwatch.wear.common.data.TLV;
 import sk.trupici.gwatch.wear.common.util.DumpUtils;
 import sk.trupici.gwatch.wear.common.util.PacketUtils;
@@ -51,6 +64,9 @@ public class ConfigListenerService extends WearableListenerService {
     private static final String WAKE_LOCK_TAG = "gwatch.wear:" + ConfigListenerService.class.getSimpleName() + ".wake_lock";
     private static final long WAKE_LOCK_TIMEOUT_MS = 60000; // 60s
 
+    private static final String CONFIG_HASH_PATH = "/config_hash";
+    private static final String SNAPSHOT_FILE_NAME = "config_snapshot.dat";
+
     public final static Map<Byte, ConfigData> preferenceMap = new HashMap<Byte, ConfigData>() {{
         // glucose levels
         put(TAG_GL_THRESHOLD_HYPO, new ConfigData(TAG_GL_THRESHOLD_HYPO, ConfigType.BYTE, CommonConstants.PREF_HYPO_THRESHOLD));
@@ -69,7 +85,11 @@ public class ConfigListenerService extends WearableListenerService {
         PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
         wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
         try {
-            if (!messageEvent.getPath().equals("/config")) {
+            if (messageEvent.getPath().equals(CONFIG_HASH_PATH)) {
+                // phone asks for current config state
+                sendConfigHash(getApplicationContext());
+                return;
+            } else if (!messageEvent.getPath().equals("/config")) {
                 super.onMessageReceived(messageEvent);
                 return;
             }
@@ -99,11 +119,67 @@ public class ConfigListenerService extends WearableListenerService {
 
             // notify watchface that config has changed
             LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(CommonConstants.REMOTE_CONFIG_ACTION));
+
+            updateSnapshot(getApplicationContext(), packet.getTlvList());
+            sendConfigHash(getApplicationContext());
         } finally {
             wakeLock.release();
         }
     }
 
+    /**
+     * Applies received values to the config snapshot the hash is computed from
+     */
+    private static synchronized void updateSnapshot(Context context, List<TLV> tlvList) {
+        ConfigSnapshot snapshot = loadSnapshot(context);
+        ConfigSnapshot.Info info = ConfigSnapshot.Info.of(tlvList);
+        if (info != null && info.isFull()) {
+            snapshot.clear();
+        }
+        snapshot.apply(tlvList);
+        if (info != null) {
+            snapshot.setVersion(info.version);
+            if (info.hash != snapshot.getHash()) {
+                Log.w(LOG_TAG, "Config snapshot hash mismatch: " + Long.toHexString(snapshot.getHash())
+                        + " vs " + Long.toHexString(info.hash));
+            }
+        }
+        File file = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            snapshot.writeTo(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to save config snapshot", e);
+        }
+    }
+
+    private static synchronized ConfigSnapshot loadSnapshot(Context context) {
+        File file = new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                return ConfigSnapshot.readFrom(in);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to load config snapshot", e);
+            }
+        }
+        return new ConfigSnapshot();
+    }
+
+    /**
+     * Advertises version and hash of the current configuration to connected phone.
+     * Blocking, must not be called on the main thread.
+     */
+    public static void sendConfigHash(Context context) {
+        byte[] info = loadSnapshot(context).encodeInfo(0);
+        try {
+            List<Node> nodes = Tasks.await(Wearable.getNodeClient(context).getConnectedNodes());
+            for (Node node : nodes) {
+                Tasks.await(Wearable.getMessageClient(context).sendMessage(node.getId(), CONFIG_HASH_PATH, info));
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e(LOG_TAG, "Failed to send config hash", e);
+        }
+    }
+
     private void persistConfig(TLV tlv, ConfigData cfg, SharedPreferences.Editor edit) {
         int intValue;
         switch (cfg.getType()) {
@@ -56,6 +56,8 @@ import sk.trupici.gwatch.wear.components.BgPanel;
 import sk.trupici.gwatch.wear.config.WatchfaceConfig;
 import sk.trupici.gwatch.wear.config.complications.ComplicationConfig;
 import sk.trupici.gwatch.wear.config.complications.ComplicationId;
+import sk.trupici.gwatch.wear.data.BgRepository;
+import sk.trupici.gwatch.wear.services.ConfigListenerService;
 import sk.trupici.gwatch.wear.util.CommonConstants;
 
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.MINUTE_IN_MILLIS;
@@ -172,9 +174,15 @@ public abstract class WatchfaceServiceBase extends CanvasWatchFaceService {
             initializeComplications(context);
             initializeCustomPanels(context, (int) refScreenWidth, (int) refScreenHeight);
 
-            registerReceiver(context, bgPanel, CommonConstants.BG_RECEIVER_ACTION, CommonConstants.REMOTE_CONFIG_ACTION);
-            registerReceiver(context, bgGraphPanel, CommonConstants.BG_RECEIVER_ACTION, CommonConstants.REMOTE_CONFIG_ACTION);
-            registerReceiver(context, bgAlarmController, CommonConstants.BG_RECEIVER_ACTION);
+            registerReceiver(context, bgPanel, CommonConstants.REMOTE_CONFIG_ACTION);
+            registerReceiver(context, bgGraphPanel, CommonConstants.REMOTE_CONFIG_ACTION);
+
+            BgRepository.addObserver(bgPanel);
+            BgRepository.addObserver(bgGraphPanel);
+            BgRepository.addObserver(bgAlarmController);
+
+            // let the phone check the config state and send changes missed while disconnected
+            new Thread(() -> ConfigListenerService.sendConfigHash(context)).start();
         }
 
         /*
@@ -194,6 +202,10 @@ public abstract class WatchfaceServiceBase extends CanvasWatchFaceService {
         public void onDestroy() {
             updateTimeHandler.removeMessages(MSG_UPDATE_TIME);
 
+            BgRepository.removeObserver(bgPanel);
+            BgRepository.removeObserver(bgGraphPanel);
+            BgRepository.removeObserver(bgAlarmController);
+
             // unregister all receivers
             LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(getApplicationContext());
             receivers.forEach(r -> {
@@ -302,7 +314,7 @@ public abstract class WatchfaceServiceBase extends CanvasWatchFaceService {
             long now = System.currentTimeMillis();
             boolean isAmbientMode = isInAmbientMode();
 
-            bgGraphPanel.refresh(now, sharedPrefs);
+            bgGraphPanel.refresh(now);
 
             bkgPanel.onDraw(canvas, isAmbientMode);
             bgGraphPanel.onDraw(canvas, isAmbientMode);
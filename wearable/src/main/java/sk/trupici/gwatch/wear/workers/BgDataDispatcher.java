@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2021 Juraj Antal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.trupici.gwatch.wear.workers;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import sk.trupici.gwatch.wear.BuildConfig;
+
+/**
+ * Processes received glucose packets on a dedicated background thread,
+ * packets submitted within {@link #BATCH_DELAY_MS} or while the thread is busy are processed
+ * together as one batch.
+ * Submission waits until its packet is processed, so the listener service is not stopped
+ * (and its process killed) before the packet is stored.
+ * The device is kept awake from the packet submission until processing is finished.
+ * {@link BgDataProcessor} job is scheduled only as a fallback when the packet cannot be
+ * handed over to the thread, its processing fails or does not finish in time.
+ */
+public class BgDataDispatcher {
+    private final static String LOG_TAG = BgDataDispatcher.class.getSimpleName();
+
+    private static final String WAKE_LOCK_TAG = "gwatch.wear:" + BgDataDispatcher.class.getSimpleName() + ".wake_lock";
+    private static final long WAKE_LOCK_TIMEOUT_MS = 60000; // 60s
+    private static final long PROCESSING_TIMEOUT_MS = 10000; // 10s
+    /** collects packets delivered at once (e.g. after reconnect) to a single batch */
+    private static final long BATCH_DELAY_MS = 20;
+
+    private static Handler handler;
+
+    private static final List<PendingPacket> pending = new ArrayList<>();
+    private static boolean isDrainScheduled = false;
+
+    private static synchronized Handler getHandler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("BgDataDispatcher", Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /**
+     * Submits glucose packet data for processing and waits until it is processed
+     * or the fallback job is scheduled. Must not be called on the main thread.
+     */
+    public static void submit(Context context, byte[] data) {
+        final Context appContext = context.getApplicationContext();
+
+        PowerManager powerManager = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+        long acquiredAt = SystemClock.elapsedRealtime();
+        try {
+            PendingPacket packet = new PendingPacket(data, acquiredAt);
+            boolean isPosted;
+            synchronized (pending) {
+                pending.add(packet);
+                isPosted = isDrainScheduled || getHandler().postDelayed(() -> drain(appContext), BATCH_DELAY_MS);
+                if (isPosted) {
+                    isDrainScheduled = true;
+                } else {
+                    pending.remove(packet);
+                }
+            }
+            if (!isPosted) {
+                Log.w(LOG_TAG, "Processing thread not available, scheduling job");
+                BgDataProcessor.enqueue(appContext, data);
+            } else if (!packet.await()) {
+                Log.w(LOG_TAG, "Processing not finished in time, scheduling job");
+                synchronized (pending) {
+                    pending.remove(packet);
+                }
+                BgDataProcessor.enqueue(appContext, data);
+            }
+        } finally {
+            wakeLock.release();
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "wake lock held " + (SystemClock.elapsedRealtime() - acquiredAt) + " ms");
+            }
+        }
+    }
+
+    private static void drain(Context context) {
+        List<PendingPacket> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            isDrainScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long startedAt = SystemClock.elapsedRealtime();
+        List<byte[]> packets = new ArrayList<>(batch.size());
+        for (PendingPacket packet : batch) {
+            packets.add(packet.data);
+        }
+        try {
+            BgDataProcessor.processBatch(context, packets);
+        } catch (Throwable t) {
+            Log.e(LOG_TAG, "Processing failed, scheduling jobs", t);
+            for (byte[] data : packets) {
+                BgDataProcessor.enqueue(context, data);
+            }
+        } finally {
+            for (PendingPacket packet : batch) {
+                packet.done.countDown();
+            }
+            if (BuildConfig.DEBUG) {
+                long finishedAt = SystemClock.elapsedRealtime();
+                long submittedAt = batch.get(0).submittedAt;
+                Log.d(LOG_TAG, batch.size() + " packet(s) processed: queued " + (startedAt - submittedAt)
+                        + " ms, processing " + (finishedAt - startedAt) + " ms");
+            }
+        }
+    }
+
+    private static class PendingPacket {
+        final byte[] data;
+        final long submittedAt;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        PendingPacket(byte[] data, long submittedAt) {
+            this.data = data;
+            this.submittedAt = submittedAt;
+        }
+
+        /**
+         * @return false if the packet is not processed in time
+         */
+        boolean await() {
+            try {
+                return done.await(PROCESSING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -16,13 +16,18 @@
 package sk.trupici.gwatch.wear.workers;
 
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.util.Log;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import androidx.annotation.NonNull;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import androidx.preference.PreferenceManager;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 import sk.trupici.gwatch.wear.R;
@@ -30,9 +35,11 @@ import sk.trupici.gwatch.wear.common.data.GlucosePacket;
 import sk.trupici.gwatch.wear.common.data.PacketBase;
 import sk.trupici.gwatch.wear.common.data.PacketType;
 import sk.trupici.gwatch.wear.common.data.Trend;
+import sk.trupici.gwatch.wear.common.util.ConfigStore;
 import sk.trupici.gwatch.wear.components.BgGraph;
 import sk.trupici.gwatch.wear.data.BgData;
-import sk.trupici.gwatch.wear.util.CommonConstants;
+import sk.trupici.gwatch.wear.data.BgRepository;
+import sk.trupici.gwatch.wear.providers.ProviderDataUpdater;
 
 import static sk.trupici.gwatch.wear.common.util.CommonConstants.DAY_IN_MILLIS;
 
@@ -43,7 +50,7 @@ public class BgDataProcessor extends Worker {
 
     public final static String PREF_LAST_BG_TIMESTAMP = "last_bg_ts";
     private final static String PREF_LAST_BG_VALUE = "last_bg_value";
-    private final static String PREF_SAMPLE_PERIOD_MIN = "bg_sample_period";
+    public final static String PREF_SAMPLE_PERIOD_MIN = "bg_sample_period";
 
     private final static int MAX_VALUE_DIFF = 100;
 
@@ -55,83 +62,159 @@ public class BgDataProcessor extends Worker {
     @Override
     public Result doWork() {
         Log.d(LOG_TAG, "BG Data Processor started work");
+        return process(getApplicationContext(), getInputData().getByteArray(EXTRA_DATA)) ? Result.success() : Result.failure();
+    }
+
+    /**
+     * Schedules processing of glucose packet data as a WorkManager job
+     */
+    public static void enqueue(Context context, byte[] data) {
+        Constraints constraints = new Constraints.Builder()
+                .setTriggerContentMaxDelay(Duration.ofMillis(100))
+                .build();
+        OneTimeWorkRequest workRequest =
+                new OneTimeWorkRequest.Builder(BgDataProcessor.class)
+                        .setInputData(new Data.Builder().putByteArray(EXTRA_DATA, data).build())
+                        .setConstraints(constraints)
+                        .build();
+
+        WorkManager.getInstance(context).enqueue(workRequest);
+    }
+
+    /**
+     * Decodes glucose packet, updates graph and last values and broadcasts received values.
+     * Blocking, must not be called from the UI thread.
+     * @return false if data is not a valid glucose packet
+     */
+    public static boolean process(Context context, byte[] data) {
+        return processBatch(context, Collections.singletonList(data)) > 0;
+    }
+
+    /**
+     * Processes multiple glucose packets at once, e.g. queued while disconnected
+     * and submitted together to {@link BgDataDispatcher}.
+     * Samples are sorted by time and deduplicated, the graph and last values are persisted once
+     * and observers are notified once.
+     * Blocking, must not be called from the UI thread.
+     * @return number of processed samples
+     */
+    public static int processBatch(Context context, List<byte[]> packets) {
+        // check and decode packets
+        List<GlucosePacket> samples = new ArrayList<>(packets.size());
+        for (byte[] data : packets) {
+            GlucosePacket packet = decodePacket(data);
+            if (packet != null) {
+                Log.d(LOG_TAG, packet.toText(context, ""));
+                samples.add(packet);
+            }
+        }
+        if (samples.isEmpty()) {
+            return 0;
+        }
+
+        // sort by sample time, keep the last received sample for the same time
+        final long now = System.currentTimeMillis();
+        samples.sort((p1, p2) -> Long.compare(getSampleTime(p1, now), getSampleTime(p2, now)));
+        int count = 0;
+        for (GlucosePacket packet : samples) {
+            if (count > 0 && getSampleTime(samples.get(count - 1), now) == getSampleTime(packet, now)) {
+                samples.set(count - 1, packet);
+            } else {
+                samples.set(count++, packet);
+            }
+        }
+
+        // get last stored values
+        ConfigStore store = ConfigStore.get(context);
+        int lastBgValue = store.getInt(PREF_LAST_BG_VALUE, 0);
+        long lastBgTimestamp = store.getLong(PREF_LAST_BG_TIMESTAMP, 0L);
+        int samplePeriod = store.getInt(PREF_SAMPLE_PERIOD_MIN, context.getResources().getInteger(R.integer.def_bg_sample_period));
+        boolean isLastChanged = false;
+
+        List<BgData> bgDataList = new ArrayList<>(count);
+        int[] bgValues = new int[count];
+        long[] bgTimestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            GlucosePacket packet = samples.get(i);
+
+            // evaluate received values
+            int bgValue = packet.getGlucoseValue();
+            long bgTimestamp = getSampleTime(packet, now);
+
+            int valueDiff = lastBgValue <= 0 ? 0 : bgValue - lastBgValue;
+            if (valueDiff > MAX_VALUE_DIFF) {
+                valueDiff = 0;
+            }
+            long timestampDiff = lastBgTimestamp <= 0 ? 0 : bgTimestamp - lastBgTimestamp;
+
+            Trend trend = packet.getTrend();
+            if (trend == null || trend == Trend.UNKNOWN) {
+                trend = calcTrend(valueDiff, samplePeriod);
+            }
+
+            // remember received values - new values only
+            if (timestampDiff >= 0 || Math.abs(timestampDiff) > DAY_IN_MILLIS) {
+                lastBgValue = bgValue;
+                lastBgTimestamp = bgTimestamp;
+                isLastChanged = true;
+            }
+
+            bgValues[i] = bgValue;
+            bgTimestamps[i] = bgTimestamp;
+            bgDataList.add(new BgData(bgValue, bgTimestamp, valueDiff, timestampDiff, trend));
+        }
 
-        Context context = getApplicationContext();
+        if (isLastChanged) {
+            store.putInt(PREF_LAST_BG_VALUE, lastBgValue);
+            store.putLong(PREF_LAST_BG_TIMESTAMP, lastBgTimestamp);
+        }
+
+        // update graph data with new values
+        BgGraph.storeValues(context, bgValues, bgTimestamps, count);
+
+        // publish received values to all in-process observers
+        BgRepository.publish(context, bgDataList);
 
-        // check and decode packet
-        final byte[] data = getInputData().getByteArray(EXTRA_DATA);
+        // update complication data directly, no need to broadcast it within the process
+        ProviderDataUpdater.update(context, bgDataList.get(count - 1));
+
+        // persist all changes before the processing is finished (background thread, not the UI one)
+        store.flush();
+
+        return count;
+    }
+
+    private static GlucosePacket decodePacket(byte[] data) {
         if (data == null || data.length < PacketBase.PACKET_HEADER_SIZE) {
-            return Result.failure();
+            return null;
         }
 
         PacketType type = PacketType.getByCode(data[0]);
         Log.d(LOG_TAG, "PACKET TYPE: " + (type == null ? "null" : type.name()));
         if (type != PacketType.GLUCOSE) {
             Log.d(LOG_TAG, "Packet ignored" + (type == null ? "null" : type.name()));
-            return Result.failure();
+            return null;
         }
 
         GlucosePacket packet = GlucosePacket.of(data);
         if (packet == null) {
             Log.e(LOG_TAG, "processGlucosePacket: failed to parse received data");
-            return Result.failure();
         }
+        return packet;
+    }
 
-        Log.d(LOG_TAG, packet.toText(context, ""));
-
-        // get last stored values
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        int lastBgValue = prefs.getInt(PREF_LAST_BG_VALUE, 0);
-        long lastBgTimestamp = prefs.getLong(PREF_LAST_BG_TIMESTAMP, 0L);
-        int samplePeriod = prefs.getInt(PREF_SAMPLE_PERIOD_MIN, context.getResources().getInteger(R.integer.def_bg_sample_period));
-
-        // evaluate received values
-        int bgValue = packet.getGlucoseValue();
+    private static long getSampleTime(GlucosePacket packet, long now) {
         long bgTimestamp = packet.getTimestamp();
         if (bgTimestamp == 0) {
             bgTimestamp = packet.getReceivedAt();
             if (bgTimestamp == 0L) {
-                bgTimestamp = System.currentTimeMillis();
+                bgTimestamp = now;
             }
         }
-
-        int valueDiff = lastBgValue <= 0 ? 0 : bgValue - lastBgValue;
-        if (valueDiff > MAX_VALUE_DIFF) {
-            valueDiff = 0;
-        }
-        long timestampDiff = lastBgTimestamp <= 0 ? 0 : bgTimestamp - lastBgTimestamp;
-
-        Trend trend = packet.getTrend();
-        if (trend == null || trend == Trend.UNKNOWN) {
-            trend = calcTrend(valueDiff, samplePeriod);
-        }
-
-        // store received values - new values only
-        if (timestampDiff >= 0 || Math.abs(timestampDiff) > DAY_IN_MILLIS) {
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putInt(PREF_LAST_BG_VALUE, bgValue);
-            editor.putLong(PREF_LAST_BG_TIMESTAMP, bgTimestamp);
-            editor.commit();
-        }
-
-        // update graph data with new value
-        BgGraph.updateAndRedraw((double)bgValue, bgTimestamp, prefs, samplePeriod);
-
-        // broadcast received values to all registered values
-        BgData bgData = new BgData(bgValue, bgTimestamp, valueDiff, timestampDiff, trend);
-
-        Intent bgIntent = new Intent(CommonConstants.BG_RECEIVER_ACTION);
-        bgIntent.putExtras(bgData.toBundle());
-        LocalBroadcastManager.getInstance(context).sendBroadcast(bgIntent);
-
-        // send data to receivers registered in manifest and wait for processing
-        bgIntent.setPackage(context.getPackageName());
-        context.sendOrderedBroadcast(bgIntent, null);
-
-        return Result.success();
+        return bgTimestamp;
     }
 
-    private Trend calcTrend(int glucoseDelta, int sampleTimeDelta) {
+    private static Trend calcTrend(int glucoseDelta, int sampleTimeDelta) {
         if (glucoseDelta < -2 * sampleTimeDelta) {
             return Trend.DOWN;
         } else if (glucoseDelta < -sampleTimeDelta) {